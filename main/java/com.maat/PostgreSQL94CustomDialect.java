@@ -2,10 +2,23 @@ package com.maat;
 
 import com.vladmihalcea.hibernate.type.array.StringArrayType;
 import org.hibernate.dialect.PostgreSQL94Dialect;
+import org.hibernate.dialect.function.SQLFunctionTemplate;
+import org.hibernate.type.StandardBasicTypes;
 
 public class PostgreSQL94CustomDialect extends PostgreSQL94Dialect {
 
+    /** Text search configuration used for the search_vector columns and the queries matched against them */
+    public static final String TEXT_SEARCH_CONFIG = "english";
+
     public PostgreSQL94CustomDialect() {
         this.registerHibernateType(2003, StringArrayType.class.getName());
+        this.registerFunction("fts_match", new SQLFunctionTemplate(StandardBasicTypes.BOOLEAN,
+                "(?1 @@ websearch_to_tsquery('" + TEXT_SEARCH_CONFIG + "', ?2))"));
+        this.registerFunction("fts_rank", new SQLFunctionTemplate(StandardBasicTypes.DOUBLE,
+                "ts_rank(?1, websearch_to_tsquery('" + TEXT_SEARCH_CONFIG + "', ?2))"));
+        this.registerFunction("keyset_after", new SQLFunctionTemplate(StandardBasicTypes.BOOLEAN,
+                "((?1, ?2) > (?3, ?4))"));
+        this.registerFunction("keyset_before", new SQLFunctionTemplate(StandardBasicTypes.BOOLEAN,
+                "((?1, ?2) < (?3, ?4))"));
     }
 }
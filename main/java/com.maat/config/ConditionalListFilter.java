@@ -0,0 +1,195 @@
+package com.maat.config;
+
+import com.maat.service.TableVersions;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Filter answering repeated reads of the list, filter and facet endpoints with 304 Not Modified as long as the tables
+ * they are read from did not change. The weak ETag of a response is derived from the {@link TableVersions versions}
+ * of those tables and from the request itself, so it is computed and compared before the request reaches a
+ * controller or the database.
+ */
+@Component
+public class ConditionalListFilter extends OncePerRequestFilter {
+
+    /** Tables the responses below each path are read from */
+    private static final Map<String, List<String>> TABLES_BY_PATH = Map.of(
+            "/api/students", List.of("students", "user_roles", "houses"),
+            "/api/users", List.of("users", "students", "user_roles"),
+            "/api/houses", List.of("houses", "users", "students", "house_prefects", "house_years"),
+            "/api/houseChangeRequests", List.of("house_change_requests", "house_change_requests_enabler",
+                    "students", "houses"),
+            "/api/housesCup", List.of("houses_cup", "students", "users", "houses", "house_points_totals",
+                    "house_points_daily", "student_points_totals", "points_snapshots"),
+            "/api/typeahead", List.of("students", "users"));
+
+    /** POST endpoints that only read, identified by the last segment of their path */
+    private static final Set<String> READING_POSTS = Set.of("filter", "facets", "resolution");
+
+    /** GET endpoints whose responses never end and cannot be answered from a cache, identified likewise */
+    private static final Set<String> STREAMS = Set.of("stream");
+
+    /** GET endpoints describing storage rather than rows, which change without a write to the tables */
+    private static final Set<String> STORAGE = Set.of("partitions");
+
+    @Autowired
+    TableVersions tableVersions;
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return tables(request) == null;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        HttpServletRequest buffered = request;
+        byte[] body = new byte[0];
+        if (!"GET".equals(request.getMethod())) {
+            body = StreamUtils.copyToByteArray(request.getInputStream());
+            buffered = new BufferedBodyRequest(request, body);
+        }
+        String eTag = eTag(tables(request), request, body);
+        if (matches(request.getHeader(HttpHeaders.IF_NONE_MATCH), eTag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            response.setHeader(HttpHeaders.ETAG, eTag);
+            return;
+        }
+        response.setHeader(HttpHeaders.ETAG, eTag);
+        chain.doFilter(buffered, response);
+    }
+
+    private List<String> tables(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        String lastSegment = path.substring(path.lastIndexOf('/') + 1);
+        boolean reading = ("GET".equals(request.getMethod()) && !STREAMS.contains(lastSegment)
+                && !STORAGE.contains(lastSegment))
+                || ("POST".equals(request.getMethod()) && READING_POSTS.contains(lastSegment));
+        if (!reading) {
+            return null;
+        }
+        for (Map.Entry<String, List<String>> entry : TABLES_BY_PATH.entrySet()) {
+            if (path.equals(entry.getKey()) || path.startsWith(entry.getKey() + "/")) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Builds the weak ETag of a request from the current versions of the tables its response is read from.
+     */
+    private String eTag(List<String> tables, HttpServletRequest request, byte[] body) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        StringBuilder key = new StringBuilder().append(tableVersions.getEpoch());
+        for (String table : tables) {
+            key.append(':').append(tableVersions.get(table));
+        }
+        key.append('\n').append(request.getMethod()).append(' ').append(request.getRequestURI())
+                .append('?').append(request.getQueryString()).append('\n');
+        digest.update(key.toString().getBytes(StandardCharsets.UTF_8));
+        digest.update(body);
+        byte[] hash = digest.digest();
+        StringBuilder eTag = new StringBuilder("W/\"");
+        for (int i = 0; i < 16; i++) {
+            eTag.append(Character.forDigit((hash[i] >> 4) & 0xF, 16)).append(Character.forDigit(hash[i] & 0xF, 16));
+        }
+        return eTag.append('"').toString();
+    }
+
+    /**
+     * Compares the ETags of an If-None-Match header with the current ETag using weak comparison.
+     */
+    private boolean matches(String ifNoneMatch, String eTag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        String opaque = eTag.substring(2);
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*") || (tag.startsWith("W/") ? tag.substring(2) : tag).equals(opaque)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Request whose body has already been read to compute its ETag, and is replayed to the controller.
+     */
+    private static class BufferedBodyRequest extends HttpServletRequestWrapper {
+        private final byte[] body;
+
+        BufferedBodyRequest(HttpServletRequest request, byte[] body) {
+            super(request);
+            this.body = body;
+        }
+
+        @Override
+        public ServletInputStream getInputStream() {
+            ByteArrayInputStream in = new ByteArrayInputStream(body);
+            return new ServletInputStream() {
+                @Override
+                public boolean isFinished() {
+                    return in.available() == 0;
+                }
+
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void setReadListener(ReadListener listener) {
+                    // the whole body is buffered, so it is available at once
+                    try {
+                        if (!isFinished()) {
+                            listener.onDataAvailable();
+                        }
+                        listener.onAllDataRead();
+                    } catch (IOException e) {
+                        listener.onError(e);
+                    }
+                }
+
+                @Override
+                public int read() {
+                    return in.read();
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) {
+                    return in.read(b, off, len);
+                }
+            };
+        }
+
+        @Override
+        public BufferedReader getReader() throws UnsupportedEncodingException {
+            String encoding = getCharacterEncoding() == null ? StandardCharsets.UTF_8.name() : getCharacterEncoding();
+            return new BufferedReader(new InputStreamReader(getInputStream(), encoding));
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.maat.config;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.EncodedResource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.init.ScriptUtils;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManagerFactory;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Applies the SQL scripts in db/migration that Hibernate's schema update cannot express, such as GIN indexes and
+ * partitions. Scripts run once each, in the order of their file names, after Hibernate has updated the tables.
+ * Applied scripts are recorded in the schema_migrations table, and a script that fails is rolled back along with
+ * the start of the application. A script is sent as a whole rather than statement by statement, so that it may
+ * define functions with dollar-quoted bodies.
+ */
+@Component
+public class SchemaMigrations {
+
+    /** Lock key keeping instances that start at the same time from applying the same script twice */
+    private static final long LOCK_KEY = 0x4d616174L;
+
+    /** Requiring the entity manager factory makes the scripts run after Hibernate's schema update */
+    @Autowired
+    EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @PostConstruct
+    public void migrate() throws IOException {
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS schema_migrations (\n" +
+                "    version varchar(255) PRIMARY KEY,\n" +
+                "    applied_at timestamp NOT NULL DEFAULT now())");
+        Resource[] scripts = new PathMatchingResourcePatternResolver().getResources("classpath*:db/migration/*.sql");
+        Arrays.sort(scripts, Comparator.comparing(Resource::getFilename));
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.queryForObject("SELECT pg_advisory_xact_lock(?)::text", String.class, LOCK_KEY);
+            Set<String> applied = new HashSet<>(jdbcTemplate.queryForList("SELECT version FROM schema_migrations",
+                    String.class));
+            for (Resource script : scripts) {
+                String version = script.getFilename();
+                if (applied.contains(version)) {
+                    continue;
+                }
+                jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+                    ScriptUtils.executeSqlScript(connection, new EncodedResource(script, StandardCharsets.UTF_8),
+                            false, false, ScriptUtils.DEFAULT_COMMENT_PREFIX, ScriptUtils.EOF_STATEMENT_SEPARATOR,
+                            ScriptUtils.DEFAULT_BLOCK_COMMENT_START_DELIMITER,
+                            ScriptUtils.DEFAULT_BLOCK_COMMENT_END_DELIMITER);
+                    return null;
+                });
+                jdbcTemplate.update("INSERT INTO schema_migrations (version) VALUES (?)", version);
+            }
+        });
+    }
+}
@@ -2,18 +2,25 @@ package com.maat.controller;
 
 import com.maat.helper.CSVHelper;
 import com.maat.message.ResponseMessage;
+import com.maat.model.ImportJob;
+import com.maat.model.ImportProgress;
 import com.maat.service.CSVService;
+import com.maat.service.ImportJobService;
+import com.maat.service.StudentImportService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
-import org.springframework.web.bind.annotation.CrossOrigin;
-import org.springframework.web.bind.annotation.PostMapping;
-import org.springframework.web.bind.annotation.RequestMapping;
-import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Modified from https://www.bezkoder.com/spring-boot-upload-csv-file/.
@@ -27,6 +34,12 @@ public class CSVController {
     @Autowired
     CSVService fileService;
 
+    @Autowired
+    StudentImportService importService;
+
+    @Autowired
+    ImportJobService jobService;
+
     /**
      * RESTful services method to receive and process a CSV multipart file from the Maat webapp.
      * @param file - Multipart File passed by http post request
@@ -54,4 +67,126 @@ public class CSVController {
         message = "Please upload a csv file!";
         return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new ResponseMessage(message));
     }
+
+    /**
+     * RESTful services method to import a CSV roster export sent as the raw request body. The body is parsed
+     * while it is being received, so the size of the export is not limited by the multipart upload settings.
+     * @param request - the http request carrying the CSV data
+     * @param writer - jpa to save students as entities, copy to merge them with set-based statements
+     * @return the number of parsed, written and rejected rows upon success
+     */
+    @PostMapping(value = "/stream", consumes = {"text/csv", "application/octet-stream"})
+    public ResponseEntity<?> uploadStream(HttpServletRequest request,
+                                          @RequestParam(required = false, name = "writer", defaultValue = "copy") String writer) {
+        try {
+            StudentImportService.WriteMode mode = StudentImportService.WriteMode.valueOf(writer.toUpperCase());
+            ImportProgress progress = importService.importStream(request.getInputStream(), mode);
+            return ResponseEntity.status(HttpStatus.OK).body(progress);
+        } catch (Exception e) {
+            String message = "Could not import the file: " + e.getMessage();
+            System.out.println("\u001B[33mERROR: " + e + "\u001B[37m");
+            return ResponseEntity.status(HttpStatus.EXPECTATION_FAILED).body(new ResponseMessage(message));
+        }
+    }
+
+    /**
+     * RESTful services method to import several roster exports of the same students at once, such as the Osiris
+     * and Canvas sheets. The files are joined on student number before anything is written, so every student is
+     * stored once with its final status.
+     * @param files - Multipart Files passed by http post request
+     * @param writer - the way rows are written: "copy" (default) or "jpa"
+     * @return Progress counters of the finished import, or a message if the files could not be imported
+     */
+    @PostMapping("/merged")
+    public ResponseEntity<?> uploadMerged(@RequestParam("files") MultipartFile[] files,
+                                          @RequestParam(required = false, name = "writer", defaultValue = "copy") String writer) {
+        List<InputStream> streams = new ArrayList<>(files.length);
+        try {
+            StudentImportService.WriteMode mode = StudentImportService.WriteMode.valueOf(writer.toUpperCase());
+            for (MultipartFile file : files) {
+                if (!CSVHelper.hasCSVFormat(file)) {
+                    String message = "Please upload csv files only: " + file.getOriginalFilename();
+                    return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new ResponseMessage(message));
+                }
+                streams.add(file.getInputStream());
+            }
+            ImportProgress progress = new ImportProgress();
+            importService.importMerged(streams, progress, mode);
+            return ResponseEntity.status(HttpStatus.OK).body(progress);
+        } catch (Exception e) {
+            String message = "Could not import the files: " + e.getMessage();
+            System.out.println("\u001B[33mERROR: " + e + "\u001B[37m");
+            return ResponseEntity.status(HttpStatus.EXPECTATION_FAILED).body(new ResponseMessage(message));
+        } finally {
+            for (InputStream stream : streams) {
+                try {
+                    stream.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * RESTful services method to queue a CSV roster export, sent as the raw request body, for import in the
+     * background. The request returns as soon as the upload is received.
+     * @param request - the http request carrying the CSV data
+     * @param fileName - the name of the uploaded file, for reporting only
+     * @param writer - jpa to save students as entities, copy to merge them with set-based statements
+     * @return the queued {@link com.maat.model.ImportJob ImportJob} whose id can be used to follow its progress
+     */
+    @PostMapping(value = "/jobs", consumes = {"text/csv", "application/octet-stream"})
+    public ResponseEntity<?> submitImportJob(HttpServletRequest request,
+                                             @RequestParam(required = false, name = "fileName") String fileName,
+                                             @RequestParam(required = false, name = "writer", defaultValue = "copy") String writer) {
+        try {
+            StudentImportService.WriteMode mode = StudentImportService.WriteMode.valueOf(writer.toUpperCase());
+            ImportJob job = jobService.submit(request.getInputStream(), fileName, mode);
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(job);
+        } catch (RejectedExecutionException e) {
+            String message = "Too many imports are waiting, please try again later";
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(new ResponseMessage(message));
+        } catch (Exception e) {
+            String message = "Could not receive the file: " + e.getMessage();
+            System.out.println("\u001B[33mERROR: " + e + "\u001B[37m");
+            return ResponseEntity.status(HttpStatus.EXPECTATION_FAILED).body(new ResponseMessage(message));
+        }
+    }
+
+    /**
+     * RESTful services method to list the import jobs that are queued, running or recently finished.
+     * @return the list of {@link com.maat.model.ImportJob ImportJob} objects, most recent first
+     */
+    @GetMapping("/jobs")
+    public ResponseEntity<?> findImportJobs() {
+        return ResponseEntity.status(HttpStatus.OK).body(jobService.getJobs());
+    }
+
+    /**
+     * RESTful services method to report the rows parsed, written and rejected by an import job and its throughput.
+     * @param id - the id of the job
+     * @return the {@link com.maat.model.ImportJob ImportJob}, or not found if the id is unknown
+     */
+    @GetMapping("/jobs/{id}")
+    public ResponseEntity<?> findImportJob(@PathVariable String id) {
+        ImportJob job = jobService.getJob(id);
+        if (job == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(new ResponseMessage("Unknown import job " + id));
+        }
+        return ResponseEntity.status(HttpStatus.OK).body(job);
+    }
+
+    /**
+     * RESTful services method to cancel an import job. Chunks written before the cancellation are kept.
+     * @param id - the id of the job
+     * @return the {@link com.maat.model.ImportJob ImportJob}, or not found if the id is unknown
+     */
+    @DeleteMapping("/jobs/{id}")
+    public ResponseEntity<?> cancelImportJob(@PathVariable String id) {
+        ImportJob job = jobService.cancel(id);
+        if (job == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(new ResponseMessage("Unknown import job " + id));
+        }
+        return ResponseEntity.status(HttpStatus.OK).body(job);
+    }
 }
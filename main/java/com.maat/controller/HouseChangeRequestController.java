@@ -1,15 +1,24 @@
 package com.maat.controller;
 
 import com.maat.message.ResponseMessage;
+import com.maat.model.HouseCapacity;
+import com.maat.model.HouseChangeDecision;
 import com.maat.model.HouseChangeRequest;
 import com.maat.model.HouseChangeRequestSimple;
 import com.maat.model.HouseChangeRequestFilters;
 import com.maat.model.HouseChangeRequestsEnabler;
 import com.maat.repository.HouseChangeRequestEnablerRepository;
+import com.maat.service.FilterablesIndex;
+import com.maat.service.PagingService;
+import com.maat.service.ExportService;
+import com.maat.service.HouseChangeDecisionService;
 import com.maat.service.HouseChangeRequestService;
+import com.maat.service.HouseChangeResolutionService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
@@ -30,6 +39,21 @@ public class HouseChangeRequestController {
     @Autowired
     HouseChangeRequestService fileService;
 
+    @Autowired
+    FilterablesIndex filterablesIndex;
+
+    @Autowired
+    ExportService exportService;
+
+    @Autowired
+    PagingService pagingService;
+
+    @Autowired
+    HouseChangeDecisionService decisionService;
+
+    @Autowired
+    HouseChangeResolutionService resolutionService;
+
     /**
      * Http Post request to add a house change request member to the Maat database.
      * @param houseChangeRequest - the {@link HouseChangeRequest HouseChangeRequest} object
@@ -57,10 +81,18 @@ public class HouseChangeRequestController {
     @GetMapping()
     public ResponseEntity<?> findAllHouseChangeRequests(@RequestParam(required = false, name = "studentId") Integer studentId,
                                                         @RequestParam(required = false, name="pageNum", defaultValue="0") Integer pageNum,
-                                                        @RequestParam(required = false, name="pageSize", defaultValue="-1") Integer pageSize,
+                                                        @RequestParam(required = false, name="pageSize", defaultValue="100") Integer pageSize,
                                                         @RequestParam(required = false, name="sortOn", defaultValue="decidedDate") String sortOn,
-                                                        @RequestParam(required = false, name="asc", defaultValue="true") Boolean asc) {
+                                                        @RequestParam(required = false, name="asc", defaultValue="true") Boolean asc,
+                                                        @RequestParam(required = false, name="cursor") String cursor,
+                                                        @RequestParam(required = false, name="slice", defaultValue="false") Boolean slice,
+                                                        @RequestParam(required = false, name="total", defaultValue="none") String total) {
         try {
+            if (studentId == null && (cursor != null || slice)) {
+                Map<String, Object> page = pagingService.getHouseChangeRequests(null, cursor, pageNum, pageSize, sortOn, asc,
+                        PagingService.TotalMode.valueOf(total.toUpperCase()));
+                return new ResponseEntity<>(page, HttpStatus.OK);
+            }
             if (studentId == null) {
                 Pageable pageable = fileService.createPageable(pageNum, pageSize, sortOn, asc);
                 Map<String, Object> resultHCR = fileService.getAllHouseChangeRequests(pageable);
@@ -68,7 +100,7 @@ public class HouseChangeRequestController {
                     return new ResponseEntity<>(HttpStatus.NO_CONTENT);
                 } else {
                     List<Object> resultList = new java.util.ArrayList<>(Collections.singletonList(resultHCR));
-                    resultList.add( fileService.getFilterables());
+                    resultList.add( filterablesIndex.getFilterables("house_change_requests"));
                     return new ResponseEntity<>(resultList, HttpStatus.OK);
                 }
             } else {
@@ -121,6 +153,44 @@ public class HouseChangeRequestController {
         }
     }
 
+    /**
+     * Http Post request to approve or deny many house change requests in one transaction. Students of approved
+     * requests are moved to their target house, and the population of each house is adjusted once.
+     * @param decisions - the id and status (APPROVED or DENIED) of each request, and a denial explanation for denials
+     * @param allOrNothing - whether to decide nothing if any decision is invalid, false by default
+     * @return http response containing one result per decision, in the order of the decisions
+     */
+    @PostMapping("/decisions")
+    public ResponseEntity<?> decideHouseChangeRequests(@RequestBody List<HouseChangeDecision> decisions,
+                                                       @RequestParam(required = false, name = "allOrNothing", defaultValue = "false") Boolean allOrNothing) {
+        try {
+            return new ResponseEntity<>(decisionService.decideAll(decisions, allOrNothing), HttpStatus.OK);
+        } catch (Exception e) {
+            String message = "Could not decide House Change Requests: " + e.getMessage();
+            System.out.println("\u001B[33mERROR: " + e + "\u001B[37m");
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new ResponseMessage(message));
+        }
+    }
+
+    /**
+     * Http Post request to propose which undecided house change requests to approve, approving as many as possible
+     * while every house stays within bounds on its population. Nothing is changed; the proposed decisions can be sent
+     * to /decisions as they are.
+     * @param capacities - the smallest and largest population of each bounded house
+     * @return http response containing the decisions to approve, the requests left out with a reason, and the
+     * current and projected population of each house
+     */
+    @PostMapping("/resolution")
+    public ResponseEntity<?> resolveHouseChangeRequests(@RequestBody List<HouseCapacity> capacities) {
+        try {
+            return new ResponseEntity<>(resolutionService.propose(capacities), HttpStatus.OK);
+        } catch (Exception e) {
+            String message = "Could not resolve House Change Requests: " + e.getMessage();
+            System.out.println("\u001B[33mERROR: " + e + "\u001B[37m");
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new ResponseMessage(message));
+        }
+    }
+
     /**
      * Http Delete request to delete a house change request from the Maat database.
      * @param houseChangeRequest - Java object matching the data to be deleted
@@ -147,25 +217,49 @@ public class HouseChangeRequestController {
     @GetMapping("/filters")
     public ResponseEntity<?> getFilterables() {
         try {
-            return new ResponseEntity<>(fileService.getFilterables(), HttpStatus.OK);
+            return new ResponseEntity<>(filterablesIndex.getFilterables("house_change_requests"), HttpStatus.OK);
         } catch (Exception e) {
             String message = "Could not retrieve filterables: " + e.getMessage();
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new ResponseMessage(message));
         }
     }
 
+    /**
+     * Http Post method to rebuild the filter options from the database, for when they no longer match the data.
+     * @return the list of unique data points per column
+     */
+    @PostMapping("/filters/rebuild")
+    public ResponseEntity<?> rebuildFilterables() {
+        try {
+            filterablesIndex.rebuild("house_change_requests");
+            return new ResponseEntity<>(filterablesIndex.getFilterables("house_change_requests"), HttpStatus.OK);
+        } catch (Exception e) {
+            String message = "Could not rebuild filterables: " + e.getMessage();
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new ResponseMessage(message));
+        }
+    }
+
     /**
      * Http Post method to get a list of {@link com.maat.model.HouseChangeRequest HouseChangeRequest} filtered on the options provided in the request body.
+     * Filters holding a fullText query are always answered with a slice, which can be sorted on "relevance".
      * @param filters the {@link com.maat.model.HouseChangeRequestFilters HouseChangeRequestFilters} object representation of the filters to be used
      * @return http response containing list of all filtered {@link com.maat.model.HouseChangeRequest HouseChangeRequests} objects from the database
      */
     @PostMapping("/filter")
     public ResponseEntity<?> findFilteredHCRs(@RequestBody HouseChangeRequestFilters filters,
                                               @RequestParam(required = false, name="pageNum", defaultValue="0") Integer pageNum,
-                                              @RequestParam(required = false, name="pageSize", defaultValue="-1") Integer pageSize,
+                                              @RequestParam(required = false, name="pageSize", defaultValue="100") Integer pageSize,
                                               @RequestParam(required = false, name="sortOn", defaultValue="decidedDate") String sortOn,
-                                              @RequestParam(required = false, name="asc", defaultValue="true") Boolean asc) {
+                                              @RequestParam(required = false, name="asc", defaultValue="true") Boolean asc,
+                                              @RequestParam(required = false, name="cursor") String cursor,
+                                              @RequestParam(required = false, name="slice", defaultValue="false") Boolean slice,
+                                              @RequestParam(required = false, name="total", defaultValue="none") String total) {
         try {
+            if (cursor != null || slice || filters.getFullText() != null) {
+                Map<String, Object> page = pagingService.getHouseChangeRequests(filters, cursor, pageNum, pageSize, sortOn, asc,
+                        PagingService.TotalMode.valueOf(total.toUpperCase()));
+                return new ResponseEntity<>(page, HttpStatus.OK);
+            }
             Pageable pageable = fileService.createPageable(pageNum, pageSize, sortOn, asc);
             Map<String, Object> hcrs = fileService.getFilteredHouseChangeRequests(filters, pageable);
             return new ResponseEntity<>(hcrs, HttpStatus.OK);
@@ -205,4 +299,28 @@ public class HouseChangeRequestController {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new ResponseMessage(message));
         }
     }
- }
+
+    /**
+     * Http Post method to export the house change requests fitting the filters in the request body as a file. Rows
+     * are streamed from the database to the response, so the size of the export is not limited by memory.
+     * @param filters the {@link com.maat.model.HouseChangeRequestFilters HouseChangeRequestFilters} object
+     *                representation of the filters to be used, or no body to export everything
+     * @param format - "csv" (default) or "ndjson"
+     * @return http response streaming the rows in the requested format
+     */
+    @PostMapping("/export")
+    public ResponseEntity<?> exportHouseChangeRequests(@RequestBody(required = false) HouseChangeRequestFilters filters,
+                                                       @RequestParam(required = false, name="format", defaultValue="csv") String format) {
+        try {
+            ExportService.ExportFormat exportFormat = ExportService.ExportFormat.valueOf(format.toUpperCase());
+            return ResponseEntity.ok()
+                    .contentType(MediaType.parseMediaType(exportFormat.getContentType()))
+                    .header(HttpHeaders.CONTENT_DISPOSITION,
+                            "attachment; filename=house-change-requests." + exportFormat.getExtension())
+                    .body(exportService.exportHouseChangeRequests(filters, exportFormat));
+        } catch (Exception e) {
+            String message = "Could not export data: " + e.getMessage();
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new ResponseMessage(message));
+        }
+    }
+}
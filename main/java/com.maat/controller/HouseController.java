@@ -3,6 +3,7 @@ package com.maat.controller;
 import com.maat.message.ResponseMessage;
 import com.maat.model.House;
 import com.maat.model.HouseSimple;
+import com.maat.service.FilterablesIndex;
 import com.maat.service.HouseService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
@@ -24,6 +25,9 @@ public class HouseController {
     @Autowired
     HouseService fileService;
 
+    @Autowired
+    FilterablesIndex filterablesIndex;
+
     /**
      * Http Post request to add a house to the Maat database.
      * @param house - the {@link com.maat.model.House House} object representing the house to be added to the database
@@ -54,7 +58,7 @@ public class HouseController {
                     return new ResponseEntity<>(HttpStatus.NO_CONTENT);
                 }
                 List<Object> resultList = new java.util.ArrayList<>(Collections.singletonList(houses));
-                resultList.add( fileService.getFilterables());
+                resultList.add( filterablesIndex.getFilterables("houses"));
                 return new ResponseEntity<>(resultList, HttpStatus.OK);
             } else {
                 HouseSimple resultHouse = fileService.getHouseByName(name);
@@ -132,10 +136,25 @@ public class HouseController {
     @GetMapping("/filters")
     public ResponseEntity<?> getFilterables() {
         try {
-            return new ResponseEntity<>(fileService.getFilterables(), HttpStatus.OK);
+            return new ResponseEntity<>(filterablesIndex.getFilterables("houses"), HttpStatus.OK);
         } catch (Exception e) {
             String message = "Could not retrieve filterables: " + e.getMessage();
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new ResponseMessage(message));
         }
     }
+
+    /**
+     * Http Post method to rebuild the filter options from the database, for when they no longer match the data.
+     * @return the list of unique data points per column
+     */
+    @PostMapping("/filters/rebuild")
+    public ResponseEntity<?> rebuildFilterables() {
+        try {
+            filterablesIndex.rebuild("houses");
+            return new ResponseEntity<>(filterablesIndex.getFilterables("houses"), HttpStatus.OK);
+        } catch (Exception e) {
+            String message = "Could not rebuild filterables: " + e.getMessage();
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new ResponseMessage(message));
+        }
+    }
 }
@@ -3,12 +3,27 @@ package com.maat.controller;
 import com.maat.helper.RecordConverter;
 import com.maat.message.ResponseMessage;
 import com.maat.model.*;
+import com.maat.service.FilterablesIndex;
+import com.maat.service.PagingService;
+import com.maat.service.ExportService;
+import com.maat.service.FacetService;
+import com.maat.service.HousePointsTotalsService;
+import com.maat.service.HousesCupPartitionService;
+import com.maat.service.HousesCupPointsBatchService;
 import com.maat.service.HousesCupPointsService;
+import com.maat.service.LeaderboardStream;
+import com.maat.service.PointsRollupService;
+import com.maat.service.PointsSnapshotService;
+import com.maat.service.StudentRankingService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.util.Collections;
 import java.util.Date;
@@ -27,6 +42,39 @@ public class HousesCupPointsController {
     @Autowired
     HousesCupPointsService fileService;
 
+    @Autowired
+    FilterablesIndex filterablesIndex;
+
+    @Autowired
+    ExportService exportService;
+
+    @Autowired
+    FacetService facetService;
+
+    @Autowired
+    PagingService pagingService;
+
+    @Autowired
+    HousePointsTotalsService pointsTotalsService;
+
+    @Autowired
+    LeaderboardStream leaderboardStream;
+
+    @Autowired
+    HousesCupPointsBatchService batchService;
+
+    @Autowired
+    PointsRollupService rollupService;
+
+    @Autowired
+    StudentRankingService rankingService;
+
+    @Autowired
+    PointsSnapshotService snapshotService;
+
+    @Autowired
+    HousesCupPartitionService partitionService;
+
     /**
      * Http request to add an entry to the houses cup points table.
      * @param housesCupPoints - the entry to be added
@@ -43,23 +91,49 @@ public class HousesCupPointsController {
         }
     }
 
+    /**
+     * Http request to add many entries to the houses cup points table in one transaction, such as the scores of an
+     * event. Invalid entries are reported and left out.
+     * @param batch - a list of complete entries and/or a template entry given to each of a list of students
+     * @param allOrNothing - whether to add nothing if any entry is invalid, false by default
+     * @return one result per entry, in the order of the entries followed by the students of the template
+     */
+    @PostMapping("/batch")
+    public ResponseEntity<?> addCupPointsBatch(@RequestBody HousesCupPointsBatch batch,
+                                               @RequestParam(required = false, name = "allOrNothing", defaultValue = "false") Boolean allOrNothing) {
+        try {
+            return new ResponseEntity<>(batchService.awardAll(batch, allOrNothing), HttpStatus.OK);
+        } catch (Exception e) {
+            String message = "Could not add Houses Cup entries: " + e.getMessage();
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new ResponseMessage(message));
+        }
+    }
+
     /**
      * Http request to find all entries into the houses cup points data table.
      * @return a list of all entries in the houses cup points table
      */
     @GetMapping()
     public ResponseEntity<?> findAllCupPointsEntries(@RequestParam(required = false, name="pageNum", defaultValue="0") Integer pageNum,
-                                                     @RequestParam(required = false, name="pageSize", defaultValue="-1") Integer pageSize,
+                                                     @RequestParam(required = false, name="pageSize", defaultValue="100") Integer pageSize,
                                                      @RequestParam(required = false, name="sortOn", defaultValue="date") String sortOn,
-                                                     @RequestParam(required = false, name="asc", defaultValue="true") Boolean asc) {
+                                                     @RequestParam(required = false, name="asc", defaultValue="true") Boolean asc,
+                                                     @RequestParam(required = false, name="cursor") String cursor,
+                                                     @RequestParam(required = false, name="slice", defaultValue="false") Boolean slice,
+                                                     @RequestParam(required = false, name="total", defaultValue="none") String total) {
         try {
+            if (cursor != null || slice) {
+                Map<String, Object> page = pagingService.getHousesCupPoints(null, cursor, pageNum, pageSize, sortOn, asc,
+                        PagingService.TotalMode.valueOf(total.toUpperCase()));
+                return new ResponseEntity<>(page, HttpStatus.OK);
+            }
             Pageable pageable = fileService.createPageable(pageNum, pageSize, sortOn, asc);
             Map<String, Object> cupPointsList = fileService.getAllHousesCupPoints(pageable);
             if ((Boolean) cupPointsList.get("empty")) {
                 return new ResponseEntity<>(HttpStatus.NO_CONTENT);
             }
             List<Object> resultList = new java.util.ArrayList<>(Collections.singletonList(cupPointsList));
-            resultList.add(fileService.getFilterables());
+            resultList.add(filterablesIndex.getFilterables("houses_cup"));
             return new ResponseEntity<>(resultList, HttpStatus.OK);
         } catch (Exception e) {
             String message = "Failed to retrieve data: " + e.getMessage();
@@ -68,8 +142,8 @@ public class HousesCupPointsController {
     }
 
     /**
-     * Http Delete request to update a houses cup points entry from the Maat database.
-     * @param housesCupPoints - the entry to be updates
+     * Http Put request to update a houses cup points entry from the Maat database.
+     * @param housesCupPoints - the entry to be updated, identified by its id
      * @return the updated houses cup points entry
      */
     @PutMapping()
@@ -85,7 +159,7 @@ public class HousesCupPointsController {
 
     /**
      * Http Delete request to delete a houses cup points entry from the Maat database.
-     * @param housesCupPoints - the entry to be deleted
+     * @param housesCupPoints - the entry to be deleted, identified by its id
      * @return message declaring the success or failure of the delete
      */
     @DeleteMapping()
@@ -108,25 +182,49 @@ public class HousesCupPointsController {
     @GetMapping("/filters")
     public ResponseEntity<?> getFilterables() {
         try {
-            return new ResponseEntity<>(fileService.getFilterables(), HttpStatus.OK);
+            return new ResponseEntity<>(filterablesIndex.getFilterables("houses_cup"), HttpStatus.OK);
         } catch (Exception e) {
             String message = "Could not retrieve filterables: " + e.getMessage();
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new ResponseMessage(message));
         }
     }
 
+    /**
+     * Http Post method to rebuild the filter options from the database, for when they no longer match the data.
+     * @return the list of unique data points per column
+     */
+    @PostMapping("/filters/rebuild")
+    public ResponseEntity<?> rebuildFilterables() {
+        try {
+            filterablesIndex.rebuild("houses_cup");
+            return new ResponseEntity<>(filterablesIndex.getFilterables("houses_cup"), HttpStatus.OK);
+        } catch (Exception e) {
+            String message = "Could not rebuild filterables: " + e.getMessage();
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new ResponseMessage(message));
+        }
+    }
+
     /**
      * Http Post method to get a list of {@link com.maat.model.HousesCupPoints HousesCupPoints} filtered on the options provided in the request body.
+     * Filters holding a fullText query are always answered with a slice, which can be sorted on "relevance".
      * @param filters the {@link com.maat.model.HousesCupPointsFilters HousesCupPointsFilters} object representation of the filters to be used
      * @return http response containing list of all filtered {@link com.maat.model.HousesCupPoints HousesCupPoints} objects from the database
      */
     @PostMapping("/filter")
     public ResponseEntity<?> findFilteredHCPs(@RequestBody HousesCupPointsFilters filters,
                                               @RequestParam(required = false, name="pageNum", defaultValue="0") Integer pageNum,
-                                              @RequestParam(required = false, name="pageSize", defaultValue="-1") Integer pageSize,
+                                              @RequestParam(required = false, name="pageSize", defaultValue="100") Integer pageSize,
                                               @RequestParam(required = false, name="sortOn", defaultValue="date") String sortOn,
-                                              @RequestParam(required = false, name="asc", defaultValue="true") Boolean asc) {
+                                              @RequestParam(required = false, name="asc", defaultValue="true") Boolean asc,
+                                              @RequestParam(required = false, name="cursor") String cursor,
+                                              @RequestParam(required = false, name="slice", defaultValue="false") Boolean slice,
+                                              @RequestParam(required = false, name="total", defaultValue="none") String total) {
         try {
+            if (cursor != null || slice || filters.getFullText() != null) {
+                Map<String, Object> page = pagingService.getHousesCupPoints(filters, cursor, pageNum, pageSize, sortOn, asc,
+                        PagingService.TotalMode.valueOf(total.toUpperCase()));
+                return new ResponseEntity<>(page, HttpStatus.OK);
+            }
             Pageable pageable = fileService.createPageable(pageNum, pageSize, sortOn, asc);
             Map<String, Object> hcps = fileService.getFilteredHousesCupPoints(filters, pageable);
             return new ResponseEntity<>(hcps, HttpStatus.OK);
@@ -137,23 +235,271 @@ public class HousesCupPointsController {
     }
 
     /**
-     * Http request to find the sum of points grouped by house.
+     * Http request to find the sum of points grouped by house, read from the running totals per house, or from the
+     * last checkpoint before a moment in the past and the entries after it.
      * @param year the academic year of for the request, current academic year by default
+     * @param asOf - a date (yyyy-MM-dd, meaning the end of that day) or date and time (yyyy-MM-ddTHH:mm:ss) to find
+     * the points at, now by default
      * @return a list of houses and their corresponding number of points
      */
     @GetMapping("/points")
-    public ResponseEntity<?> getPointsByHouse(@RequestParam(required = false, name = "year") Integer year) {
+    public ResponseEntity<?> getPointsByHouse(@RequestParam(required = false, name = "year") Integer year,
+                                              @RequestParam(required = false, name = "asOf") String asOf) {
         try {
             if (year == null) {
                 year = RecordConverter.getAcademicYear(new Date());
             }
-            return new ResponseEntity<>(fileService.getPointsByHouse(year), HttpStatus.OK);
+            if (asOf != null) {
+                return new ResponseEntity<>(snapshotService.getPointsByHouse(year, asOf), HttpStatus.OK);
+            }
+            return new ResponseEntity<>(pointsTotalsService.getPointsByHouse(year), HttpStatus.OK);
         } catch (Exception e) {
             String message = "Could not retrieve points per house grouped by year " + year + ": " + e.getMessage();
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new ResponseMessage(message));
         }
     }
 
+    /**
+     * Http request to subscribe to the changes of the points per house and per student as Server-Sent Events. The
+     * stream starts with a "snapshot" event holding the points per house and per student of each house, followed by
+     * "delta" events holding the points added per house and per student of a house, at most one per half second.
+     * Every event carries a version, and deltas only follow the snapshot with higher versions.
+     * @param year the academic year of for the request, current academic year by default
+     * @return the event stream
+     */
+    @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamPoints(@RequestParam(required = false, name = "year") Integer year) {
+        try {
+            if (year == null) {
+                year = RecordConverter.getAcademicYear(new Date());
+            }
+            return leaderboardStream.subscribe(year);
+        } catch (Exception e) {
+            String message = "Could not subscribe to points of year " + year + ": " + e.getMessage();
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, message, e);
+        }
+    }
+
+    /**
+     * Http request to compare the running totals per house with the entries they are summed from.
+     * @param repair - whether to sum the totals again if they differ, true by default
+     * @return a list of the totals that differed
+     */
+    @PostMapping("/points/verify")
+    public ResponseEntity<?> verifyPointsByHouse(@RequestParam(required = false, name = "repair", defaultValue = "true") Boolean repair) {
+        try {
+            return new ResponseEntity<>(pointsTotalsService.verify(repair), HttpStatus.OK);
+        } catch (Exception e) {
+            String message = "Could not verify points per house: " + e.getMessage();
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new ResponseMessage(message));
+        }
+    }
+
+    /**
+     * Http request to sum the running totals per house again from all entries.
+     * @return http response without content
+     */
+    @PostMapping("/points/rebuild")
+    public ResponseEntity<?> rebuildPointsByHouse() {
+        try {
+            pointsTotalsService.rebuild();
+            return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+        } catch (Exception e) {
+            String message = "Could not rebuild points per house: " + e.getMessage();
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new ResponseMessage(message));
+        }
+    }
+
+    /**
+     * Http request to list the checkpoints of the points per house and per student that past points are read from.
+     * @return the identifier, cutoff and creation time of every checkpoint, latest cutoff first
+     */
+    @GetMapping("/points/snapshots")
+    public ResponseEntity<?> getPointsSnapshots() {
+        try {
+            return new ResponseEntity<>(snapshotService.getSnapshots(), HttpStatus.OK);
+        } catch (Exception e) {
+            String message = "Could not retrieve points checkpoints: " + e.getMessage();
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new ResponseMessage(message));
+        }
+    }
+
+    /**
+     * Http request to take a checkpoint of the points per house and per student at a moment, such as the end of a term.
+     * @param cutoff - a date (yyyy-MM-dd, meaning the end of that day) or date and time (yyyy-MM-ddTHH:mm:ss), not in
+     * the future
+     * @return the identifier of the checkpoint
+     */
+    @PostMapping("/points/snapshots")
+    public ResponseEntity<?> takePointsSnapshot(@RequestParam(name = "cutoff") String cutoff) {
+        try {
+            return new ResponseEntity<>(snapshotService.takeSnapshot(cutoff), HttpStatus.CREATED);
+        } catch (Exception e) {
+            String message = "Could not take points checkpoint at " + cutoff + ": " + e.getMessage();
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new ResponseMessage(message));
+        }
+    }
+
+    /**
+     * Http request to find the points per house per day, week or month, along with the running total of each house.
+     * @param year the academic year of for the request, current academic year by default
+     * @param granularity - "day" (default), "week" or "month"
+     * @return per house a list of periods with their points, number of entries and running total
+     */
+    @GetMapping("/rollup")
+    public ResponseEntity<?> getPointsRollup(@RequestParam(required = false, name = "year") Integer year,
+                                             @RequestParam(required = false, name = "granularity", defaultValue = "day") String granularity) {
+        try {
+            if (year == null) {
+                year = RecordConverter.getAcademicYear(new Date());
+            }
+            return new ResponseEntity<>(rollupService.getRollup(year, granularity.toLowerCase()), HttpStatus.OK);
+        } catch (Exception e) {
+            String message = "Could not retrieve points over time of year " + year + ": " + e.getMessage();
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new ResponseMessage(message));
+        }
+    }
+
+    /**
+     * Http request to sum the points per house per closed day again from all entries.
+     * @return http response without content
+     */
+    @PostMapping("/rollup/rebuild")
+    public ResponseEntity<?> rebuildPointsRollup() {
+        try {
+            rollupService.rebuild();
+            return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+        } catch (Exception e) {
+            String message = "Could not rebuild points over time: " + e.getMessage();
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new ResponseMessage(message));
+        }
+    }
+
+    /**
+     * Http request to list the partitions of the houses cup points table, one per academic year.
+     * @return the name, academic year, estimated number of entries, size and whether it is archived of every partition
+     */
+    @GetMapping("/partitions")
+    public ResponseEntity<?> getPartitions() {
+        try {
+            return new ResponseEntity<>(partitionService.getPartitions(), HttpStatus.OK);
+        } catch (Exception e) {
+            String message = "Could not retrieve partitions: " + e.getMessage();
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new ResponseMessage(message));
+        }
+    }
+
+    /**
+     * Http request to archive the entries of a closed academic year. Archived entries are still returned by all
+     * requests, but can no longer be added, changed or deleted.
+     * @param year - the academic year, before the current one
+     * @return http response without content
+     */
+    @PostMapping("/partitions/{year}/archive")
+    public ResponseEntity<?> archivePartition(@PathVariable("year") Integer year) {
+        try {
+            partitionService.archive(year);
+            return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+        } catch (Exception e) {
+            String message = "Could not archive academic year " + year + ": " + e.getMessage();
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new ResponseMessage(message));
+        }
+    }
+
+    /**
+     * Http request to restore the archived entries of an academic year, so that they can be changed again.
+     * @param year - the academic year
+     * @return http response without content
+     */
+    @PostMapping("/partitions/{year}/restore")
+    public ResponseEntity<?> restorePartition(@PathVariable("year") Integer year) {
+        try {
+            partitionService.restore(year);
+            return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+        } catch (Exception e) {
+            String message = "Could not restore academic year " + year + ": " + e.getMessage();
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new ResponseMessage(message));
+        }
+    }
+
+    /**
+     * Http request to find the students with the most points in a house, or among all students.
+     * @param year the academic year of for the request, current academic year by default
+     * @param house - the house, all houses by default
+     * @param limit - the number of students, 10 by default
+     * @param asOf - a date (yyyy-MM-dd, meaning the end of that day) or date and time (yyyy-MM-ddTHH:mm:ss) to rank
+     * at, now by default
+     * @return the best students with their points, rank and percentile, best first
+     */
+    @GetMapping("/ranking/top")
+    public ResponseEntity<?> getTopStudents(@RequestParam(required = false, name = "year") Integer year,
+                                            @RequestParam(required = false, name = "house") String house,
+                                            @RequestParam(required = false, name = "limit", defaultValue = "10") Integer limit,
+                                            @RequestParam(required = false, name = "asOf") String asOf) {
+        try {
+            if (year == null) {
+                year = RecordConverter.getAcademicYear(new Date());
+            }
+            return new ResponseEntity<>(rankingService.getTop(year, house, limit,
+                    asOf == null ? null : snapshotService.asOf(asOf)), HttpStatus.OK);
+        } catch (Exception e) {
+            String message = "Could not retrieve ranking of year " + year + ": " + e.getMessage();
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new ResponseMessage(message));
+        }
+    }
+
+    /**
+     * Http request to find the rank and percentile of a student within their house and among all students.
+     * @param id - the id number of the student
+     * @param year the academic year of for the request, current academic year by default
+     * @param asOf - a date (yyyy-MM-dd, meaning the end of that day) or date and time (yyyy-MM-ddTHH:mm:ss) to rank
+     * at, now by default
+     * @return the ranking of the student in their house under "house" and among all students under "overall"
+     */
+    @GetMapping("/ranking/student/{id}")
+    public ResponseEntity<?> getStudentRanking(@PathVariable("id") Integer id,
+                                               @RequestParam(required = false, name = "year") Integer year,
+                                               @RequestParam(required = false, name = "asOf") String asOf) {
+        try {
+            if (year == null) {
+                year = RecordConverter.getAcademicYear(new Date());
+            }
+            return new ResponseEntity<>(rankingService.getStudentRanking(year, id,
+                    asOf == null ? null : snapshotService.asOf(asOf)), HttpStatus.OK);
+        } catch (Exception e) {
+            String message = "Could not retrieve ranking of student " + id + ": " + e.getMessage();
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new ResponseMessage(message));
+        }
+    }
+
+    /**
+     * Http request to find the students ranked just above and below a student.
+     * @param id - the id number of the student
+     * @param year the academic year of for the request, current academic year by default
+     * @param overall - whether to rank among all students instead of within the house of the student, false by default
+     * @param radius - the number of students on either side, 2 by default
+     * @param asOf - a date (yyyy-MM-dd, meaning the end of that day) or date and time (yyyy-MM-ddTHH:mm:ss) to rank
+     * at, now by default
+     * @return the ranking of the student and their neighbours, best first
+     */
+    @GetMapping("/ranking/neighbours/{id}")
+    public ResponseEntity<?> getRankingNeighbours(@PathVariable("id") Integer id,
+                                                  @RequestParam(required = false, name = "year") Integer year,
+                                                  @RequestParam(required = false, name = "overall", defaultValue = "false") Boolean overall,
+                                                  @RequestParam(required = false, name = "radius", defaultValue = "2") Integer radius,
+                                                  @RequestParam(required = false, name = "asOf") String asOf) {
+        try {
+            if (year == null) {
+                year = RecordConverter.getAcademicYear(new Date());
+            }
+            return new ResponseEntity<>(rankingService.getNeighbours(year, id, overall, radius,
+                    asOf == null ? null : snapshotService.asOf(asOf)), HttpStatus.OK);
+        } catch (Exception e) {
+            String message = "Could not retrieve ranking neighbours of student " + id + ": " + e.getMessage();
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new ResponseMessage(message));
+        }
+    }
+
     /**
      * Http request to find the sum of points grouped by student for a given house.
      * @param house the house for which the data is requested, required
@@ -173,4 +519,45 @@ public class HousesCupPointsController {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new ResponseMessage(message));
         }
     }
+
+    /**
+     * Http Post method to count the Houses Cup entries per filter option under the filters in the request body. The
+     * counts of an option ignore the selection made on its own filter.
+     * @param filters the {@link com.maat.model.HousesCupPointsFilters HousesCupPointsFilters} object
+     *                representation of the current selection
+     * @return http response containing the number of Houses Cup entries per option, per filter
+     */
+    @PostMapping("/facets")
+    public ResponseEntity<?> getFacets(@RequestBody(required = false) HousesCupPointsFilters filters) {
+        try {
+            return new ResponseEntity<>(facetService.getHousesCupPointsFacets(filters), HttpStatus.OK);
+        } catch (Exception e) {
+            String message = "Could not count filter options: " + e.getMessage();
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new ResponseMessage(message));
+        }
+    }
+
+    /**
+     * Http Post method to export the Houses Cup entries fitting the filters in the request body as a file. Rows are
+     * streamed from the database to the response, so the size of the export is not limited by memory.
+     * @param filters the {@link com.maat.model.HousesCupPointsFilters HousesCupPointsFilters} object
+     *                representation of the filters to be used, or no body to export everything
+     * @param format - "csv" (default) or "ndjson"
+     * @return http response streaming the rows in the requested format
+     */
+    @PostMapping("/export")
+    public ResponseEntity<?> exportHousesCupPoints(@RequestBody(required = false) HousesCupPointsFilters filters,
+                                                   @RequestParam(required = false, name="format", defaultValue="csv") String format) {
+        try {
+            ExportService.ExportFormat exportFormat = ExportService.ExportFormat.valueOf(format.toUpperCase());
+            return ResponseEntity.ok()
+                    .contentType(MediaType.parseMediaType(exportFormat.getContentType()))
+                    .header(HttpHeaders.CONTENT_DISPOSITION,
+                            "attachment; filename=houses-cup." + exportFormat.getExtension())
+                    .body(exportService.exportHousesCupPoints(filters, exportFormat));
+        } catch (Exception e) {
+            String message = "Could not export data: " + e.getMessage();
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new ResponseMessage(message));
+        }
+    }
 }
@@ -5,10 +5,16 @@ import com.maat.model.*;
 import com.maat.model.StudentFilters;
 import com.maat.model.StudentSimple;
 import com.maat.model.StudentSimpleHouse;
+import com.maat.service.FilterablesIndex;
+import com.maat.service.PagingService;
+import com.maat.service.ExportService;
+import com.maat.service.FacetService;
 import com.maat.service.StudentService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
@@ -29,6 +35,18 @@ public class StudentController {
     @Autowired
     StudentService fileService;
 
+    @Autowired
+    FilterablesIndex filterablesIndex;
+
+    @Autowired
+    ExportService exportService;
+
+    @Autowired
+    FacetService facetService;
+
+    @Autowired
+    PagingService pagingService;
+
 
     /**
      * Http Post request to add a student to the Maat database.
@@ -60,10 +78,18 @@ public class StudentController {
     @GetMapping()
     public ResponseEntity<?> findAllStudents(@RequestParam(required = false, name = "id") Integer id,
                                              @RequestParam(required = false, name="pageNum", defaultValue="0") Integer pageNum,
-                                             @RequestParam(required = false, name="pageSize", defaultValue="-1") Integer pageSize,
+                                             @RequestParam(required = false, name="pageSize", defaultValue="100") Integer pageSize,
                                              @RequestParam(required = false, name="sortOn", defaultValue="lastName") String sortOn,
-                                             @RequestParam(required = false, name="asc", defaultValue="true") Boolean asc) {
+                                             @RequestParam(required = false, name="asc", defaultValue="true") Boolean asc,
+                                             @RequestParam(required = false, name="cursor") String cursor,
+                                             @RequestParam(required = false, name="slice", defaultValue="false") Boolean slice,
+                                             @RequestParam(required = false, name="total", defaultValue="none") String total) {
         try {
+            if (id == null && (cursor != null || slice)) {
+                Map<String, Object> page = pagingService.getStudents(null, cursor, pageNum, pageSize, sortOn, asc,
+                        PagingService.TotalMode.valueOf(total.toUpperCase()));
+                return new ResponseEntity<>(page, HttpStatus.OK);
+            }
             if (id == null) {
                 Pageable pageable = fileService.createPageable(pageNum, pageSize, sortOn, asc);
                 Map<String, Object> students = fileService.getAllStudents(pageable);
@@ -71,7 +97,7 @@ public class StudentController {
                     return new ResponseEntity<>(HttpStatus.NO_CONTENT);
                 }
                 List<Object> resultList = new java.util.ArrayList<>(Collections.singletonList(students));
-                resultList.add( fileService.getFilterables());
+                resultList.add( filterablesIndex.getFilterables("students"));
                 return new ResponseEntity<>(resultList, HttpStatus.OK);
             } else {
                 StudentSimple resultStudent = fileService.getStudentById(id);
@@ -95,10 +121,18 @@ public class StudentController {
     @PostMapping("/filter")
     public ResponseEntity<?> findStudentsFiltered(@RequestBody StudentFilters filters,
                                                   @RequestParam(required = false, name="pageNum", defaultValue="0") Integer pageNum,
-                                                  @RequestParam(required = false, name="pageSize", defaultValue="-1") Integer pageSize,
+                                                  @RequestParam(required = false, name="pageSize", defaultValue="100") Integer pageSize,
                                                   @RequestParam(required = false, name="sortOn", defaultValue="lastName") String sortOn,
-                                                  @RequestParam(required = false, name="asc", defaultValue="true") Boolean asc) {
+                                                  @RequestParam(required = false, name="asc", defaultValue="true") Boolean asc,
+                                                  @RequestParam(required = false, name="cursor") String cursor,
+                                                  @RequestParam(required = false, name="slice", defaultValue="false") Boolean slice,
+                                                  @RequestParam(required = false, name="total", defaultValue="none") String total) {
         try {
+            if (cursor != null || slice) {
+                Map<String, Object> page = pagingService.getStudents(filters, cursor, pageNum, pageSize, sortOn, asc,
+                        PagingService.TotalMode.valueOf(total.toUpperCase()));
+                return new ResponseEntity<>(page, HttpStatus.OK);
+            }
             Pageable pageable = fileService.createPageable(pageNum, pageSize, sortOn, asc);
             Map<String, Object> students = fileService.getFilteredStudents(filters, pageable);
             return new ResponseEntity<>(students, HttpStatus.OK);
@@ -172,11 +206,67 @@ public class StudentController {
     @GetMapping("/filters")
     public ResponseEntity<?> getFilterables() {
         try {
-            return new ResponseEntity<>(fileService.getFilterables(), HttpStatus.OK);
+            return new ResponseEntity<>(filterablesIndex.getFilterables("students"), HttpStatus.OK);
         } catch (Exception e) {
             String message = "Could not retrieve filterables: " + e.getMessage();
             System.out.println("\u001B[33mERROR: " + e + "\u001B[37m");
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new ResponseMessage(message));
         }
     }
+
+    /**
+     * Http Post method to rebuild the filter options from the database, for when they no longer match the data.
+     * @return the list of unique data points per column
+     */
+    @PostMapping("/filters/rebuild")
+    public ResponseEntity<?> rebuildFilterables() {
+        try {
+            filterablesIndex.rebuild("students");
+            return new ResponseEntity<>(filterablesIndex.getFilterables("students"), HttpStatus.OK);
+        } catch (Exception e) {
+            String message = "Could not rebuild filterables: " + e.getMessage();
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new ResponseMessage(message));
+        }
+    }
+
+    /**
+     * Http Post method to count the students per filter option under the filters in the request body. The counts of
+     * an option ignore the selection made on its own filter.
+     * @param filters the {@link com.maat.model.StudentFilters StudentFilters} object
+     *                representation of the current selection
+     * @return http response containing the number of students per option, per filter
+     */
+    @PostMapping("/facets")
+    public ResponseEntity<?> getFacets(@RequestBody(required = false) StudentFilters filters) {
+        try {
+            return new ResponseEntity<>(facetService.getStudentFacets(filters), HttpStatus.OK);
+        } catch (Exception e) {
+            String message = "Could not count filter options: " + e.getMessage();
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new ResponseMessage(message));
+        }
+    }
+
+    /**
+     * Http Post method to export the students fitting the filters in the request body as a file. Rows are streamed
+     * from the database to the response, so the size of the export is not limited by memory.
+     * @param filters the {@link com.maat.model.StudentFilters StudentFilters} object
+     *                representation of the filters to be used, or no body to export everything
+     * @param format - "csv" (default) or "ndjson"
+     * @return http response streaming the rows in the requested format
+     */
+    @PostMapping("/export")
+    public ResponseEntity<?> exportStudents(@RequestBody(required = false) StudentFilters filters,
+                                            @RequestParam(required = false, name="format", defaultValue="csv") String format) {
+        try {
+            ExportService.ExportFormat exportFormat = ExportService.ExportFormat.valueOf(format.toUpperCase());
+            return ResponseEntity.ok()
+                    .contentType(MediaType.parseMediaType(exportFormat.getContentType()))
+                    .header(HttpHeaders.CONTENT_DISPOSITION,
+                            "attachment; filename=students." + exportFormat.getExtension())
+                    .body(exportService.exportStudents(filters, exportFormat));
+        } catch (Exception e) {
+            String message = "Could not export data: " + e.getMessage();
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new ResponseMessage(message));
+        }
+    }
 }
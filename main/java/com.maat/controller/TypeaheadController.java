@@ -0,0 +1,54 @@
+package com.maat.controller;
+
+import com.maat.message.ResponseMessage;
+import com.maat.service.TypeaheadIndex;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * Class answering the search boxes of the Maat webapp from the in-memory {@link TypeaheadIndex TypeaheadIndex}.
+ */
+@CrossOrigin("http://localhost:8080")
+@RestController
+@RequestMapping("/api/typeahead")
+public class TypeaheadController {
+
+    @Autowired
+    TypeaheadIndex typeaheadIndex;
+
+    /**
+     * Http Get method to find the students and staff members whose names, email or id number match the typed text.
+     * Every word of the text must match the start of, or for words of three or more characters any part of, a word
+     * of the person. Case and diacritics are ignored.
+     * @param query - the typed text
+     * @param limit - the largest number of matches to return, at most 50
+     * @return http response containing the best matches first, each with its type ("student" or "user")
+     */
+    @GetMapping()
+    public ResponseEntity<?> search(@RequestParam(name = "q") String query,
+                                    @RequestParam(required = false, name = "limit", defaultValue = "10") Integer limit) {
+        try {
+            return new ResponseEntity<>(typeaheadIndex.search(query, limit), HttpStatus.OK);
+        } catch (Exception e) {
+            String message = "Could not search: " + e.getMessage();
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new ResponseMessage(message));
+        }
+    }
+
+    /**
+     * Http Post method to read the search index again from the database.
+     * @return http response without content
+     */
+    @PostMapping("/rebuild")
+    public ResponseEntity<?> rebuild() {
+        try {
+            typeaheadIndex.rebuild();
+            return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+        } catch (Exception e) {
+            String message = "Could not rebuild search index: " + e.getMessage();
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new ResponseMessage(message));
+        }
+    }
+}
@@ -2,10 +2,16 @@ package com.maat.controller;
 
 import com.maat.message.ResponseMessage;
 import com.maat.model.*;
+import com.maat.service.FilterablesIndex;
+import com.maat.service.PagingService;
+import com.maat.service.ExportService;
+import com.maat.service.FacetService;
 import com.maat.service.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
@@ -26,6 +32,18 @@ public class UserController {
     @Autowired
     UserService fileService;
 
+    @Autowired
+    FilterablesIndex filterablesIndex;
+
+    @Autowired
+    ExportService exportService;
+
+    @Autowired
+    FacetService facetService;
+
+    @Autowired
+    PagingService pagingService;
+
     /**
      * Http Post request to add a user to the Maat database.
      * @param user - the {@link User User} object representation of the user
@@ -54,10 +72,18 @@ public class UserController {
     @GetMapping()
     public ResponseEntity<?> findAllUser(@RequestParam(required = false, name = "id") Integer id,
                                          @RequestParam(required = false, name="pageNum", defaultValue="0") Integer pageNum,
-                                         @RequestParam(required = false, name="pageSize", defaultValue="-1") Integer pageSize,
+                                         @RequestParam(required = false, name="pageSize", defaultValue="100") Integer pageSize,
                                          @RequestParam(required = false, name="sortOn", defaultValue="lastName") String sortOn,
-                                         @RequestParam(required = false, name="asc", defaultValue="true") Boolean asc) {
+                                         @RequestParam(required = false, name="asc", defaultValue="true") Boolean asc,
+                                         @RequestParam(required = false, name="cursor") String cursor,
+                                         @RequestParam(required = false, name="slice", defaultValue="false") Boolean slice,
+                                         @RequestParam(required = false, name="total", defaultValue="none") String total) {
         try {
+            if (id == null && (cursor != null || slice)) {
+                Map<String, Object> page = pagingService.getUsers(null, cursor, pageNum, pageSize, sortOn, asc,
+                        PagingService.TotalMode.valueOf(total.toUpperCase()));
+                return new ResponseEntity<>(page, HttpStatus.OK);
+            }
             if (id == null) {
                 Pageable pageable = fileService.createPageable(pageNum, pageSize, sortOn, asc);
                 UserFilters userFilters = new UserFilters();
@@ -66,7 +92,7 @@ public class UserController {
                     return new ResponseEntity<>(HttpStatus.NO_CONTENT);
                 }
                 List<Object> resultList = new java.util.ArrayList<>(Collections.singletonList(users));
-                resultList.add( fileService.getFilterables());
+                resultList.add( filterablesIndex.getFilterables("users"));
                 return new ResponseEntity<>(resultList, HttpStatus.OK);
             } else {
                 UserSimple resultUser = fileService.getUserById(id);
@@ -125,13 +151,28 @@ public class UserController {
     @GetMapping("/filters")
     public ResponseEntity<?> getFilterables() {
         try {
-            return new ResponseEntity<>(fileService.getFilterables(), HttpStatus.OK);
+            return new ResponseEntity<>(filterablesIndex.getFilterables("users"), HttpStatus.OK);
         } catch (Exception e) {
             String message = "Could not retrieve filterables: " + e.getMessage();
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new ResponseMessage(message));
         }
     }
 
+    /**
+     * Http Post method to rebuild the filter options from the database, for when they no longer match the data.
+     * @return the list of unique data points per column
+     */
+    @PostMapping("/filters/rebuild")
+    public ResponseEntity<?> rebuildFilterables() {
+        try {
+            filterablesIndex.rebuild("users");
+            return new ResponseEntity<>(filterablesIndex.getFilterables("users"), HttpStatus.OK);
+        } catch (Exception e) {
+            String message = "Could not rebuild filterables: " + e.getMessage();
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new ResponseMessage(message));
+        }
+    }
+
     /**
      * Http Post method to get a list of users filtered on the options provided in the request body.
      * @param filters the {@link com.maat.model.UserFilters UserFilters} object representation of the filters to be used
@@ -140,10 +181,18 @@ public class UserController {
     @PostMapping("/filter")
     public ResponseEntity<?> findUsersFiltered(@RequestBody UserFilters filters,
                                                @RequestParam(required = false, name="pageNum", defaultValue="0") Integer pageNum,
-                                               @RequestParam(required = false, name="pageSize", defaultValue="-1") Integer pageSize,
+                                               @RequestParam(required = false, name="pageSize", defaultValue="100") Integer pageSize,
                                                @RequestParam(required = false, name="sortOn", defaultValue="lastName") String sortOn,
-                                               @RequestParam(required = false, name="asc", defaultValue="true") Boolean asc) {
+                                               @RequestParam(required = false, name="asc", defaultValue="true") Boolean asc,
+                                               @RequestParam(required = false, name="cursor") String cursor,
+                                               @RequestParam(required = false, name="slice", defaultValue="false") Boolean slice,
+                                               @RequestParam(required = false, name="total", defaultValue="none") String total) {
         try {
+            if (cursor != null || slice) {
+                Map<String, Object> page = pagingService.getUsers(filters, cursor, pageNum, pageSize, sortOn, asc,
+                        PagingService.TotalMode.valueOf(total.toUpperCase()));
+                return new ResponseEntity<>(page, HttpStatus.OK);
+            }
             Pageable pageable = fileService.createPageable(pageNum, pageSize, sortOn, asc);
             Map<String, Object> users = fileService.getFilteredUsers(filters, pageable);
             return new ResponseEntity<>(users, HttpStatus.OK);
@@ -153,4 +202,44 @@ public class UserController {
         }
     }
 
+    /**
+     * Http Post method to count the users per filter option under the filters in the request body. The counts of an
+     * option ignore the selection made on its own filter.
+     * @param filters the {@link com.maat.model.UserFilters UserFilters} object
+     *                representation of the current selection
+     * @return http response containing the number of users per option, per filter
+     */
+    @PostMapping("/facets")
+    public ResponseEntity<?> getFacets(@RequestBody(required = false) UserFilters filters) {
+        try {
+            return new ResponseEntity<>(facetService.getUserFacets(filters), HttpStatus.OK);
+        } catch (Exception e) {
+            String message = "Could not count filter options: " + e.getMessage();
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new ResponseMessage(message));
+        }
+    }
+
+    /**
+     * Http Post method to export the staff users fitting the filters in the request body as a file. Rows are
+     * streamed from the database to the response, so the size of the export is not limited by memory.
+     * @param filters the {@link com.maat.model.UserFilters UserFilters} object
+     *                representation of the filters to be used, or no body to export everything
+     * @param format - "csv" (default) or "ndjson"
+     * @return http response streaming the rows in the requested format
+     */
+    @PostMapping("/export")
+    public ResponseEntity<?> exportUsers(@RequestBody(required = false) UserFilters filters,
+                                         @RequestParam(required = false, name="format", defaultValue="csv") String format) {
+        try {
+            ExportService.ExportFormat exportFormat = ExportService.ExportFormat.valueOf(format.toUpperCase());
+            return ResponseEntity.ok()
+                    .contentType(MediaType.parseMediaType(exportFormat.getContentType()))
+                    .header(HttpHeaders.CONTENT_DISPOSITION,
+                            "attachment; filename=users." + exportFormat.getExtension())
+                    .body(exportService.exportUsers(filters, exportFormat));
+        } catch (Exception e) {
+            String message = "Could not export data: " + e.getMessage();
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new ResponseMessage(message));
+        }
+    }
 }
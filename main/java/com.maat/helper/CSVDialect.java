@@ -0,0 +1,47 @@
+package com.maat.helper;
+
+import org.apache.commons.csv.CSVRecord;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A roster export format that can be imported. Implementations are Spring components and are picked up by the
+ * {@link CSVDialectRegistry CSVDialectRegistry}, so a new export only needs a new dialect class.
+ */
+public interface CSVDialect {
+
+    /**
+     * Name of the dialect, also stored with the content hashes of imported rows to tell sources apart.
+     * Must not change once rows have been imported with it.
+     */
+    String getName();
+
+    /**
+     * Decides whether a row of the file is the header row of this dialect.
+     * @param record - one of the first rows of the file
+     * @return true if the row is the header of this dialect
+     */
+    boolean isHeader(CSVRecord record);
+
+    /**
+     * Compiles the mapping from the columns of a file to the attributes of a student. Called once per file,
+     * so that rows can be converted without looking up column names.
+     * @param header - column indexes by column name
+     * @param preamble - the rows before the header
+     * @return the compiled mapping
+     */
+    ColumnMapping compile(Map<String, Integer> header, List<CSVRecord> preamble);
+
+    /**
+     * Checks whether a row contains a column name, for dialects recognised by one of their columns.
+     */
+    static boolean hasColumn(CSVRecord record, String column) {
+        for (String value : record) {
+            if (value.equals(column)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,40 @@
+package com.maat.helper;
+
+import org.apache.commons.csv.CSVRecord;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Registry of the roster export formats known to the application, consisting of all {@link CSVDialect CSVDialect}
+ * components.
+ */
+@Component
+public class CSVDialectRegistry {
+
+    private final List<CSVDialect> dialects;
+
+    @Autowired
+    public CSVDialectRegistry(List<CSVDialect> dialects) {
+        this.dialects = dialects;
+    }
+
+    /**
+     * Finds the dialect a row is the header of.
+     * @param record - one of the first rows of a file
+     * @return the dialect, or null if the row is not a known header
+     */
+    public CSVDialect detect(CSVRecord record) {
+        for (CSVDialect dialect : dialects) {
+            if (dialect.isHeader(record)) {
+                return dialect;
+            }
+        }
+        return null;
+    }
+
+    public List<CSVDialect> getDialects() {
+        return dialects;
+    }
+}
@@ -0,0 +1,33 @@
+package com.maat.helper;
+
+import org.apache.commons.csv.CSVRecord;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The Canvas course roster, providing the name students use on Canvas and their email.
+ */
+@Component
+public class CanvasDialect implements CSVDialect {
+
+    private static final String KEY_COLUMN = "Student Number";
+
+    @Override
+    public String getName() {
+        return "CANVAS";
+    }
+
+    @Override
+    public boolean isHeader(CSVRecord record) {
+        return CSVDialect.hasColumn(record, KEY_COLUMN);
+    }
+
+    @Override
+    public ColumnMapping compile(Map<String, Integer> header, List<CSVRecord> preamble) {
+        return new ColumnMapping(header, KEY_COLUMN)
+                .map("Full Name", (student, value) -> student.setLinkName(value))
+                .map("Email", (student, value) -> student.setEmail(value));
+    }
+}
@@ -0,0 +1,94 @@
+package com.maat.helper;
+
+import com.maat.model.Student;
+import org.apache.commons.csv.CSVRecord;
+
+import java.text.ParseException;
+import java.util.Map;
+
+/**
+ * Mapping from the columns of one roster file to the attributes of a student, compiled from the header of the file.
+ * Setters are stored by column index, so converting a row is a single pass over its values without any lookups.
+ */
+public class ColumnMapping {
+
+    /**
+     * Sets an attribute of a student from the value of a column.
+     */
+    @FunctionalInterface
+    public interface FieldSetter {
+        void set(Student student, String value) throws ParseException;
+    }
+
+    private final Map<String, Integer> header;
+
+    private final int keyIndex;
+
+    private FieldSetter[] setters;
+
+    /**
+     * Starts a mapping for a file.
+     * @param header - column indexes by column name
+     * @param keyColumn - the name of the column holding the student number
+     */
+    public ColumnMapping(Map<String, Integer> header, String keyColumn) {
+        this.header = header;
+        Integer index = header.get(keyColumn);
+        if (index == null) {
+            throw new IllegalArgumentException("Header has no " + keyColumn + " column");
+        }
+        this.keyIndex = index;
+        this.setters = new FieldSetter[index + 1];
+    }
+
+    /**
+     * Maps a column to an attribute. Columns that are not in the file are ignored.
+     * @param column - the name of the column
+     * @param setter - the setter receiving the non-empty values of the column
+     * @return this mapping
+     */
+    public ColumnMapping map(String column, FieldSetter setter) {
+        Integer index = header.get(column);
+        if (index != null) {
+            if (index >= setters.length) {
+                FieldSetter[] grown = new FieldSetter[index + 1];
+                System.arraycopy(setters, 0, grown, 0, setters.length);
+                setters = grown;
+            }
+            setters[index] = setter;
+        }
+        return this;
+    }
+
+    /**
+     * Converts a row to a student holding the attributes of the mapped columns.
+     * @param record - the row to convert
+     * @return the partially filled student
+     * @throws ParseException - if a value cannot be parsed
+     */
+    public Student toStudent(CSVRecord record) throws ParseException {
+        Student student = new Student(parseIdNumber(keyIndex < record.size() ? record.get(keyIndex) : ""));
+        int columns = Math.min(setters.length, record.size());
+        for (int i = 0; i < columns; i++) {
+            FieldSetter setter = setters[i];
+            if (setter != null) {
+                String value = record.get(i);
+                if (!value.isEmpty()) {
+                    setter.set(student, value);
+                }
+            }
+        }
+        return student;
+    }
+
+    private int parseIdNumber(String value) {
+        if (value.isEmpty()) {
+            throw new IllegalArgumentException("Student number is missing");
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Student number " + value + " is not a number");
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.maat.helper;
+
+import com.maat.model.*;
+import org.springframework.data.jpa.domain.Specification;
+
+import javax.persistence.criteria.*;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Converts the filter objects sent by the Maat webapp into JPA specifications, so that the same filters can be
+ * applied to any query on the filtered entity.
+ */
+public class FilterSpecifications {
+
+    private FilterSpecifications() {
+    }
+
+    /**
+     * Creates the specification matching students that fit the given filters.
+     * @param filters - the {@link com.maat.model.StudentFilters StudentFilters}, or null to match all students
+     * @return the specification
+     */
+    public static Specification<Student> forStudents(StudentFilters filters) {
+        return (root, query, cb) -> {
+            if (filters == null) {
+                return cb.conjunction();
+            }
+            List<Predicate> predicates = new ArrayList<>();
+            addIn(predicates, root.get("gender"), filters.getGender());
+            addIn(predicates, root.get("program"), filters.getProgram());
+            addIn(predicates, root.join("house", JoinType.LEFT).get("name"), filters.getHouse());
+            addIn(predicates, root.get("cohort"), filters.getYear());
+            addIn(predicates, root.get("experience"), filters.getExperience());
+            addIn(predicates, root.get("doGroup"), filters.getDoGroup());
+            addIn(predicates, root.get("status"), filters.getStatus());
+            addDateRange(predicates, cb, root.get("dateAssignedToHouse"), filters.getStartDate(), filters.getEndDate());
+            addSearch(predicates, cb, filters.getSearchString(), root.get("idNumber").as(String.class),
+                    root.get("firstName"), root.get("lastName"), root.get("linkName"), root.get("email"));
+            return cb.and(predicates.toArray(new Predicate[0]));
+        };
+    }
+
+    /**
+     * Creates the specification matching staff users that fit the given filters. Students are stored as a subclass
+     * of users, so they are left out by their type.
+     * @param userFilters - the {@link com.maat.model.UserFilters UserFilters}, or null to match all staff users
+     * @return the specification
+     */
+    public static Specification<User> forUsers(UserFilters userFilters) {
+        UserFilters filters = userFilters == null ? UserFilters.builder().build() : userFilters;
+        return (root, query, cb) -> {
+            List<Predicate> predicates = new ArrayList<>();
+            predicates.add(cb.equal(root.type(), User.class));
+            addIn(predicates, root.join("house", JoinType.LEFT).get("name"), filters.getHouse());
+            if (filters.getRoles() != null && !filters.getRoles().isEmpty()) {
+                Subquery<Integer> withRole = query.subquery(Integer.class);
+                Root<User> user = withRole.correlate(root);
+                withRole.select(cb.literal(1)).where(user.join("roles").get("role").in(filters.getRoles()));
+                predicates.add(cb.exists(withRole));
+            }
+            addDateRange(predicates, cb, root.get("dateAssignedToHouse"), filters.getStartDate(), filters.getEndDate());
+            addSearch(predicates, cb, filters.getSearchString(), root.get("idNumber").as(String.class),
+                    root.get("firstName"), root.get("lastName"), root.get("email"));
+            return cb.and(predicates.toArray(new Predicate[0]));
+        };
+    }
+
+    /**
+     * Creates the specification matching Houses Cup entries that fit the given filters.
+     * @param filters - the {@link com.maat.model.HousesCupPointsFilters HousesCupPointsFilters}, or null to match
+     *                all entries
+     * @return the specification
+     */
+    public static Specification<HousesCupPoints> forHousesCupPoints(HousesCupPointsFilters filters) {
+        return (root, query, cb) -> {
+            if (filters == null) {
+                return cb.conjunction();
+            }
+            List<Predicate> predicates = new ArrayList<>();
+            addIn(predicates, root.join("house", JoinType.LEFT).get("name"), filters.getHouse());
+            addIn(predicates, root.get("academicYear"), filters.getAcademicYear());
+            if (filters.getStartPoints() != null) {
+                predicates.add(cb.greaterThanOrEqualTo(root.get("points"), filters.getStartPoints()));
+            }
+            if (filters.getEndPoints() != null) {
+                predicates.add(cb.lessThanOrEqualTo(root.get("points"), filters.getEndPoints()));
+            }
+            addDateRange(predicates, cb, root.get("date"), filters.getStartDate(), filters.getEndDate());
+            Join<HousesCupPoints, Student> student = root.join("student", JoinType.LEFT);
+            addSearch(predicates, cb, filters.getSearchString(), root.get("explanation"),
+                    student.get("firstName"), student.get("lastName"));
+            addFullText(predicates, cb, root, filters.getFullText());
+            return cb.and(predicates.toArray(new Predicate[0]));
+        };
+    }
+
+    /**
+     * Creates the specification matching house change requests that fit the given filters.
+     * @param filters - the {@link com.maat.model.HouseChangeRequestFilters HouseChangeRequestFilters}, or null to
+     *                match all requests
+     * @return the specification
+     */
+    public static Specification<HouseChangeRequest> forHouseChangeRequests(HouseChangeRequestFilters filters) {
+        return (root, query, cb) -> {
+            if (filters == null) {
+                return cb.conjunction();
+            }
+            List<Predicate> predicates = new ArrayList<>();
+            Path<String> targetHouse = root.join("targetHouse", JoinType.LEFT).get("name");
+            Path<String> oldHouse = root.join("oldHouse", JoinType.LEFT).get("name");
+            addIn(predicates, targetHouse, filters.getTargetHouse());
+            addIn(predicates, oldHouse, filters.getOldHouse());
+            if (filters.getEitherHouse() != null && !filters.getEitherHouse().isEmpty()) {
+                predicates.add(cb.or(targetHouse.in(filters.getEitherHouse()), oldHouse.in(filters.getEitherHouse())));
+            }
+            addIn(predicates, root.get("status"), filters.getStatus());
+            addDateRange(predicates, cb, root.get("requestDate"), filters.getStartDate(), filters.getEndDate());
+            Join<HouseChangeRequest, Student> student = root.join("student");
+            addSearch(predicates, cb, filters.getSearchString(), student.get("idNumber").as(String.class),
+                    student.get("firstName"), student.get("lastName"), root.get("explanation"));
+            addFullText(predicates, cb, root, filters.getFullText());
+            return cb.and(predicates.toArray(new Predicate[0]));
+        };
+    }
+
+    /**
+     * Creates the expression scoring how well a row matches a full text query, higher being better.
+     * @param cb - the criteria builder of the query
+     * @param root - the queried entity, which must have a search_vector column
+     * @param fullText - the full text query
+     * @return the expression
+     */
+    public static Expression<Double> fullTextRank(CriteriaBuilder cb, Root<?> root, String fullText) {
+        return cb.function("fts_rank", Double.class, root.get("searchVector"), cb.literal(fullText.trim()));
+    }
+
+    /**
+     * Matches rows whose search_vector column matches the full text query, through its GIN index.
+     */
+    private static void addFullText(List<Predicate> predicates, CriteriaBuilder cb, Root<?> root, String fullText) {
+        if (fullText != null && !fullText.isBlank()) {
+            predicates.add(cb.isTrue(cb.function("fts_match", Boolean.class, root.get("searchVector"),
+                    cb.literal(fullText.trim()))));
+        }
+    }
+
+    private static void addIn(List<Predicate> predicates, Expression<?> expression, List<?> values) {
+        if (values != null && !values.isEmpty()) {
+            predicates.add(expression.in(values));
+        }
+    }
+
+    private static void addDateRange(List<Predicate> predicates, CriteriaBuilder cb, Expression<Date> date,
+                                     Date start, Date end) {
+        if (start != null) {
+            predicates.add(cb.greaterThanOrEqualTo(date, start));
+        }
+        if (end != null) {
+            predicates.add(cb.lessThanOrEqualTo(date, end));
+        }
+    }
+
+    /**
+     * Matches rows where any of the given attributes contains the search string, ignoring case.
+     */
+    @SafeVarargs
+    private static void addSearch(List<Predicate> predicates, CriteriaBuilder cb, String searchString,
+                                  Expression<String>... attributes) {
+        if (searchString == null || searchString.isBlank()) {
+            return;
+        }
+        String pattern = "%" + searchString.trim().toLowerCase(Locale.ROOT)
+                .replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+        Predicate[] matches = new Predicate[attributes.length];
+        for (int i = 0; i < attributes.length; i++) {
+            matches[i] = cb.like(cb.lower(attributes[i]), pattern, '\\');
+        }
+        predicates.add(cb.or(matches));
+    }
+}
@@ -0,0 +1,140 @@
+package com.maat.helper;
+
+import java.util.Arrays;
+
+/**
+ * Minimum-cost circulation on a small directed graph with integer capacities and costs, solved by cancelling
+ * negative cycles found with Bellman-Ford in the residual graph until none are left. Every cancelled cycle lowers
+ * the cost by at least one, so the number of rounds is bounded by the cost of the optimum, and a round costs
+ * O(nodes * arcs), which suits graphs of a few dozen nodes carrying thousands of units of flow.
+ * Arcs are stored in pairs of an arc and its reverse residual arc. Not thread-safe.
+ */
+public class MinCostCirculation {
+
+    /** Capacity of an arc without an upper bound */
+    public static final long UNBOUNDED = Long.MAX_VALUE / 4;
+
+    private final int nodes;
+
+    private int[] from = new int[16];
+
+    private int[] to = new int[16];
+
+    private long[] capacity = new long[16];
+
+    private long[] cost = new long[16];
+
+    private long[] flow = new long[16];
+
+    private int arcs;
+
+    /**
+     * Creates an empty graph.
+     * @param nodes - the number of nodes, numbered from 0
+     */
+    public MinCostCirculation(int nodes) {
+        this.nodes = nodes;
+    }
+
+    /**
+     * Adds an arc.
+     * @param source - the node the arc leaves
+     * @param target - the node the arc enters
+     * @param arcCapacity - the largest flow on the arc, at least 0
+     * @param arcCost - the cost per unit of flow on the arc
+     * @return the index of the arc, to read its flow with
+     */
+    public int addArc(int source, int target, long arcCapacity, long arcCost) {
+        if (arcs + 2 > from.length) {
+            int length = from.length * 2;
+            from = Arrays.copyOf(from, length);
+            to = Arrays.copyOf(to, length);
+            capacity = Arrays.copyOf(capacity, length);
+            cost = Arrays.copyOf(cost, length);
+            flow = Arrays.copyOf(flow, length);
+        }
+        int arc = arcs;
+        set(arc, source, target, arcCapacity, arcCost);
+        set(arc + 1, target, source, 0, -arcCost);
+        arcs += 2;
+        return arc;
+    }
+
+    /**
+     * Finds the circulation of least total cost.
+     * @return the total cost
+     */
+    public long solve() {
+        long[] distance = new long[nodes];
+        int[] predecessor = new int[nodes];
+        while (true) {
+            int cycleNode = findNegativeCycle(distance, predecessor);
+            if (cycleNode < 0) {
+                break;
+            }
+            long bottleneck = UNBOUNDED;
+            int node = cycleNode;
+            do {
+                int arc = predecessor[node];
+                bottleneck = Math.min(bottleneck, capacity[arc] - flow[arc]);
+                node = from[arc];
+            } while (node != cycleNode);
+            node = cycleNode;
+            do {
+                int arc = predecessor[node];
+                flow[arc] += bottleneck;
+                flow[arc ^ 1] -= bottleneck;
+                node = from[arc];
+            } while (node != cycleNode);
+        }
+        long total = 0;
+        for (int arc = 0; arc < arcs; arc += 2) {
+            total += flow[arc] * cost[arc];
+        }
+        return total;
+    }
+
+    /**
+     * @param arc - the index of an arc returned by {@link #addArc(int, int, long, long) addArc}
+     * @return the flow on the arc
+     */
+    public long getFlow(int arc) {
+        return flow[arc];
+    }
+
+    /**
+     * Runs Bellman-Ford from a virtual node connected to every node at no cost.
+     * @return a node on a negative cycle of the residual graph, whose arcs are given by the predecessors, or -1
+     */
+    private int findNegativeCycle(long[] distance, int[] predecessor) {
+        Arrays.fill(distance, 0);
+        Arrays.fill(predecessor, -1);
+        int relaxed = -1;
+        for (int round = 0; round < nodes; round++) {
+            relaxed = -1;
+            for (int arc = 0; arc < arcs; arc++) {
+                if (capacity[arc] - flow[arc] > 0 && distance[from[arc]] + cost[arc] < distance[to[arc]]) {
+                    distance[to[arc]] = distance[from[arc]] + cost[arc];
+                    predecessor[to[arc]] = arc;
+                    relaxed = to[arc];
+                }
+            }
+            if (relaxed < 0) {
+                return -1;
+            }
+        }
+        int node = relaxed;
+        for (int i = 0; i < nodes; i++) {
+            node = from[predecessor[node]];
+        }
+        return node;
+    }
+
+    private void set(int arc, int source, int target, long arcCapacity, long arcCost) {
+        from[arc] = source;
+        to[arc] = target;
+        capacity[arc] = arcCapacity;
+        cost[arc] = arcCost;
+        flow[arc] = 0;
+    }
+}
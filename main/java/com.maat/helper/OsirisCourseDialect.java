@@ -0,0 +1,51 @@
+package com.maat.helper;
+
+import org.apache.commons.csv.CSVRecord;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The Osiris participant list of a course ("Deelnemerslijst per cursus"). Names are given as "Last, I. (First)" and
+ * the starting year of the course in the preamble is used as the cohort of its students.
+ */
+@Component
+public class OsirisCourseDialect implements CSVDialect {
+
+    private static final String KEY_COLUMN = "Student-nummer";
+
+    @Override
+    public String getName() {
+        return "OSIRIS_COURSE";
+    }
+
+    @Override
+    public boolean isHeader(CSVRecord record) {
+        return CSVDialect.hasColumn(record, KEY_COLUMN);
+    }
+
+    @Override
+    public ColumnMapping compile(Map<String, Integer> header, List<CSVRecord> preamble) {
+        Integer cohort = null;
+        for (CSVRecord record : preamble) {
+            if (record.size() > 2 && record.get(0).equals("Cursus") && record.get(2).matches("\\d{4}")) {
+                cohort = Integer.parseInt(record.get(2));
+            }
+        }
+        Integer courseCohort = cohort;
+        return new ColumnMapping(header, KEY_COLUMN)
+                // Every row has a student number, which makes it the column to attach the cohort of the course to
+                .map(KEY_COLUMN, (student, value) -> student.setCohort(courseCohort))
+                .map("Naam", (student, name) -> {
+                    int comma = name.indexOf(',');
+                    int open = name.indexOf('(');
+                    int close = name.indexOf(')');
+                    student.setLastName(comma > 0 ? name.substring(0, comma).trim() : name);
+                    if (open >= 0 && close > open) {
+                        student.setFirstName(name.substring(open + 1, close).trim());
+                    }
+                })
+                .map("Opleiding", (student, value) -> student.setProgram(value));
+    }
+}
@@ -0,0 +1,43 @@
+package com.maat.helper;
+
+import org.apache.commons.csv.CSVRecord;
+import org.springframework.stereotype.Component;
+
+import java.text.SimpleDateFormat;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The Osiris export of personal details, providing names, gender, date of birth, nationality and email.
+ */
+@Component
+public class OsirisPersonalDialect implements CSVDialect {
+
+    private static final String KEY_COLUMN = "Studentnummer";
+
+    @Override
+    public String getName() {
+        return "OSIRIS_PERSONAL";
+    }
+
+    @Override
+    public boolean isHeader(CSVRecord record) {
+        return CSVDialect.hasColumn(record, KEY_COLUMN);
+    }
+
+    @Override
+    public ColumnMapping compile(Map<String, Integer> header, List<CSVRecord> preamble) {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy");
+        return new ColumnMapping(header, KEY_COLUMN)
+                // The prefix ("van der") always goes in front of the last name, whichever column comes first
+                .map("Achternaam", (student, value) -> student.setLastName(
+                        student.getLastName() == null ? value : student.getLastName() + " " + value))
+                .map("Voorvoegsels", (student, value) -> student.setLastName(
+                        student.getLastName() == null ? value : value + " " + student.getLastName()))
+                .map("Roepnaam", (student, value) -> student.setFirstName(value))
+                .map("Geslacht", (student, value) -> student.setGender(value))
+                .map("Geboortedatum", (student, value) -> student.setDob(dateFormat.parse(value)))
+                .map("Omschrijving nationaliteit", (student, value) -> student.setNationality(value))
+                .map("E-mailadres", (student, value) -> student.setEmail(value));
+    }
+}
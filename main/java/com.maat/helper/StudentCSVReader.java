@@ -0,0 +1,191 @@
+package com.maat.helper;
+
+import com.maat.model.ImportProgress;
+import com.maat.model.Student;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.MessageFormat;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads roster exports one row at a time so that a file never has to be held in memory. The format of the file
+ * is detected by the {@link CSVDialectRegistry CSVDialectRegistry}, and each row is turned into a partially filled
+ * {@link com.maat.model.Student Student} containing only the attributes the sheet provides, along with a hash of
+ * those attributes to recognise rows that did not change since the previous import.
+ */
+public class StudentCSVReader implements Iterator<StudentCSVReader.Row>, Closeable {
+
+    /** Number of rows searched for the header before the file is considered to be of an unknown format */
+    public static final int HEADER_SEARCH_LIMIT = 20;
+
+    /**
+     * A parsed roster row.
+     */
+    public static class Row {
+        private final Student student;
+        private final long fingerprint;
+
+        Row(Student student, long fingerprint) {
+            this.student = student;
+            this.fingerprint = fingerprint;
+        }
+
+        public Student getStudent() {
+            return student;
+        }
+
+        public long getFingerprint() {
+            return fingerprint;
+        }
+    }
+
+    private final CSVParser parser;
+
+    private final Iterator<CSVRecord> records;
+
+    private final ImportProgress progress;
+
+    private CSVDialect dialect;
+
+    private ColumnMapping mapping;
+
+    private final MessageDigest digest;
+
+    private Row next;
+
+    /**
+     * Opens a roster export and positions the reader on the first row after the header.
+     * @param in - the raw CSV data
+     * @param dialects - the known export formats
+     * @param progress - counters to register parsed and rejected rows on
+     * @throws IOException - if the data cannot be read or no known header is found
+     */
+    public StudentCSVReader(InputStream in, CSVDialectRegistry dialects, ImportProgress progress) throws IOException {
+        this.parser = new CSVParser(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)),
+                CSVFormat.DEFAULT.withIgnoreEmptyLines().withTrim());
+        this.records = parser.iterator();
+        this.progress = progress;
+        try {
+            this.digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        readHeader(dialects);
+    }
+
+    public CSVDialect getDialect() {
+        return dialect;
+    }
+
+    /**
+     * Skips the preamble rows of the export until the header row of a known dialect is found, and compiles
+     * the column mapping of that dialect for the rest of the file.
+     * @param dialects - the known export formats
+     * @throws IOException - if no known header is found within the first rows
+     */
+    private void readHeader(CSVDialectRegistry dialects) throws IOException {
+        List<CSVRecord> preamble = new ArrayList<>();
+        for (int i = 0; i < HEADER_SEARCH_LIMIT && records.hasNext(); i++) {
+            CSVRecord record = records.next();
+            dialect = dialects.detect(record);
+            if (dialect != null) {
+                Map<String, Integer> header = new HashMap<>();
+                for (int column = 0; column < record.size(); column++) {
+                    header.putIfAbsent(record.get(column), column);
+                }
+                mapping = dialect.compile(header, preamble);
+                return;
+            }
+            preamble.add(record);
+        }
+        throw new IOException("File is not a known roster export");
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (next == null && records.hasNext()) {
+            CSVRecord record = records.next();
+            progress.getRowsParsed().incrementAndGet();
+            try {
+                Student student = mapping.toStudent(record);
+                validate(student);
+                next = new Row(student, fingerprint(student));
+            } catch (IllegalArgumentException | ParseException e) {
+                progress.reject(MessageFormat.format("Line {0}: {1}",
+                        Long.toString(record.getRecordNumber()), e.getMessage()));
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public Row next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Row row = next;
+        next = null;
+        return row;
+    }
+
+    @Override
+    public void close() throws IOException {
+        parser.close();
+    }
+
+    /**
+     * Checks the attributes that were read from the row, leaving attributes the sheet does not provide alone.
+     * @param student - the partially filled student
+     */
+    private void validate(Student student) {
+        if (!ValidityChecker.idNumIsValid(student.getIdNumber())) {
+            throw new IllegalArgumentException("Student number " + student.getIdNumber() + " is not valid");
+        }
+        if (student.getEmail() != null && !ValidityChecker.studentEmailIsValid(student.getEmail())) {
+            throw new IllegalArgumentException("Email " + student.getEmail() + " is not a valid student email");
+        }
+        if ((student.getFirstName() != null && !ValidityChecker.nameIsValid(student.getFirstName()))
+                || (student.getLastName() != null && !ValidityChecker.nameIsValid(student.getLastName()))) {
+            throw new IllegalArgumentException("Name of student " + student.getIdNumber() + " is not valid");
+        }
+    }
+
+    /**
+     * Hashes the normalised attributes read from a row. Only attributes the sheet provides are set, so the
+     * hash changes exactly when the data this sheet contributes to the student changes.
+     * @param student - the partially filled student
+     * @return the first 64 bits of the SHA-256 hash of the attributes
+     */
+    private long fingerprint(Student student) {
+        StringBuilder normalised = new StringBuilder();
+        Object[] values = {student.getIdNumber(), student.getFirstName(), student.getLastName(),
+                student.getLinkName(), student.getEmail() == null ? null : student.getEmail().toLowerCase(Locale.ROOT),
+                student.getGender(), student.getDob() == null ? null : student.getDob().getTime(),
+                student.getNationality(), student.getProgram(), student.getCohort()};
+        for (Object value : values) {
+            if (value != null) {
+                normalised.append(value.toString().replaceAll("\\s+", " "));
+            }
+            normalised.append('\u001F');
+        }
+        byte[] hash = digest.digest(normalised.toString().getBytes(StandardCharsets.UTF_8));
+        long result = 0;
+        for (int i = 0; i < Long.BYTES; i++) {
+            result = (result << 8) | (hash[i] & 0xFF);
+        }
+        return result;
+    }
+}
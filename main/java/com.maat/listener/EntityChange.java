@@ -0,0 +1,70 @@
+package com.maat.listener;
+
+import java.util.Map;
+
+/**
+ * A committed change to a single row, described by the column values of the row before and after the change as
+ * Hibernate wrote them. Associations are given by the value of their join column. For collection tables only the
+ * owning entity is known.
+ */
+public class EntityChange {
+
+    /**
+     * The kinds of change a row can undergo.
+     */
+    public enum Kind {
+        INSERT, UPDATE, DELETE
+    }
+
+    private final Kind kind;
+
+    private final String table;
+
+    private final Object entity;
+
+    private final Map<String, Object> oldValues;
+
+    private final Map<String, Object> newValues;
+
+    public EntityChange(Kind kind, String table, Object entity, Map<String, Object> oldValues,
+                        Map<String, Object> newValues) {
+        this.kind = kind;
+        this.table = table;
+        this.entity = entity;
+        this.oldValues = oldValues;
+        this.newValues = newValues;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return the name of the table the row is in
+     */
+    public String getTable() {
+        return table;
+    }
+
+    /**
+     * @return the changed entity
+     */
+    public Object getEntity() {
+        return entity;
+    }
+
+    /**
+     * @return the column values before the change, null for inserts, for changes to collection tables and for
+     * updates of detached entities whose previous state is unknown
+     */
+    public Map<String, Object> getOldValues() {
+        return oldValues;
+    }
+
+    /**
+     * @return the column values after the change, null for deletes and for changes to collection tables
+     */
+    public Map<String, Object> getNewValues() {
+        return newValues;
+    }
+}
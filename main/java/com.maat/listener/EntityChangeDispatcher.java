@@ -0,0 +1,168 @@
+package com.maat.listener;
+
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.*;
+import org.hibernate.persister.collection.AbstractCollectionPersister;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.proxy.HibernateProxy;
+import org.hibernate.type.EntityType;
+import org.hibernate.type.Type;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManagerFactory;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hibernate listener translating committed inserts, updates and deletes into {@link EntityChange EntityChange}s
+ * and passing them on to every {@link EntityChangeObserver EntityChangeObserver} component. Changes to collection
+ * tables, such as the roles of a user, are reported as an update of the collection table without column values.
+ */
+@Component
+public class EntityChangeDispatcher implements PostCommitInsertEventListener, PostCommitUpdateEventListener,
+        PostCommitDeleteEventListener, PostCollectionRecreateEventListener, PostCollectionUpdateEventListener,
+        PostCollectionRemoveEventListener {
+
+    private static final long serialVersionUID = -2391786651329815230L;
+
+    @Autowired
+    transient EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    transient List<EntityChangeObserver> observers;
+
+    @PostConstruct
+    public void register() {
+        EventListenerRegistry registry = entityManagerFactory.unwrap(SessionFactoryImplementor.class)
+                .getServiceRegistry().getService(EventListenerRegistry.class);
+        registry.appendListeners(EventType.POST_COMMIT_INSERT, this);
+        registry.appendListeners(EventType.POST_COMMIT_UPDATE, this);
+        registry.appendListeners(EventType.POST_COMMIT_DELETE, this);
+        registry.appendListeners(EventType.POST_COLLECTION_RECREATE, this);
+        registry.appendListeners(EventType.POST_COLLECTION_UPDATE, this);
+        registry.appendListeners(EventType.POST_COLLECTION_REMOVE, this);
+    }
+
+    @Override
+    public void onPostInsert(PostInsertEvent event) {
+        dispatch(new EntityChange(EntityChange.Kind.INSERT, tableName(event.getPersister()), event.getEntity(), null,
+                columnValues(event.getPersister(), event.getId(), event.getState(), event.getSession())));
+    }
+
+    @Override
+    public void onPostUpdate(PostUpdateEvent event) {
+        Map<String, Object> oldValues = event.getOldState() == null ? null
+                : columnValues(event.getPersister(), event.getId(), event.getOldState(), event.getSession());
+        dispatch(new EntityChange(EntityChange.Kind.UPDATE, tableName(event.getPersister()), event.getEntity(),
+                oldValues, columnValues(event.getPersister(), event.getId(), event.getState(), event.getSession())));
+    }
+
+    @Override
+    public void onPostDelete(PostDeleteEvent event) {
+        dispatch(new EntityChange(EntityChange.Kind.DELETE, tableName(event.getPersister()), event.getEntity(),
+                columnValues(event.getPersister(), event.getId(), event.getDeletedState(), event.getSession()), null));
+    }
+
+    @Override
+    public void onPostRecreateCollection(PostCollectionRecreateEvent event) {
+        dispatchAfterCommit(event);
+    }
+
+    @Override
+    public void onPostUpdateCollection(PostCollectionUpdateEvent event) {
+        dispatchAfterCommit(event);
+    }
+
+    @Override
+    public void onPostRemoveCollection(PostCollectionRemoveEvent event) {
+        dispatchAfterCommit(event);
+    }
+
+    /**
+     * Collection events have no post-commit variant, so the change is held back until the transaction completes.
+     */
+    private void dispatchAfterCommit(AbstractCollectionEvent event) {
+        String table = ((AbstractCollectionPersister) event.getSession().getFactory().getMetamodel()
+                .collectionPersister(event.getCollection().getRole())).getTableName();
+        EntityChange change = new EntityChange(EntityChange.Kind.UPDATE, table, event.getAffectedOwnerOrNull(),
+                null, null);
+        event.getSession().getActionQueue().registerProcess((success, session) -> {
+            if (success) {
+                dispatch(change);
+            }
+        });
+    }
+
+    @Override
+    public void onPostInsertCommitFailed(PostInsertEvent event) {
+    }
+
+    @Override
+    public void onPostUpdateCommitFailed(PostUpdateEvent event) {
+    }
+
+    @Override
+    public void onPostDeleteCommitFailed(PostDeleteEvent event) {
+    }
+
+    @Override
+    public boolean requiresPostCommitHanding(EntityPersister persister) {
+        return true;
+    }
+
+    private void dispatch(EntityChange change) {
+        for (EntityChangeObserver observer : observers) {
+            try {
+                observer.onChange(change);
+            } catch (RuntimeException e) {
+                System.out.println("\u001B[33mERROR: " + e + "\u001B[37m");
+            }
+        }
+    }
+
+    private String tableName(EntityPersister persister) {
+        return ((AbstractEntityPersister) persister).getTableName();
+    }
+
+    /**
+     * Maps the state of an entity to the values of the columns it is stored in. Collections and properties spanning
+     * several columns are left out, and associations are replaced by the value their join column refers to.
+     */
+    private Map<String, Object> columnValues(EntityPersister persister, Serializable id, Object[] state,
+                                             SharedSessionContractImplementor session) {
+        AbstractEntityPersister entityPersister = (AbstractEntityPersister) persister;
+        Map<String, Object> values = new HashMap<>();
+        values.put(entityPersister.getIdentifierColumnNames()[0], id);
+        Type[] types = entityPersister.getPropertyTypes();
+        for (int i = 0; i < types.length; i++) {
+            String[] columns = entityPersister.getPropertyColumnNames(i);
+            if (types[i].isCollectionType() || columns.length != 1) {
+                continue;
+            }
+            Object value = state[i];
+            if (value != null && types[i].isEntityType()) {
+                value = referencedValue((EntityType) types[i], value, session);
+            }
+            values.put(columns[0], value);
+        }
+        return values;
+    }
+
+    private Object referencedValue(EntityType type, Object associated, SharedSessionContractImplementor session) {
+        String uniqueKey = type.getRHSUniqueKeyPropertyName();
+        if (uniqueKey == null && associated instanceof HibernateProxy) {
+            return ((HibernateProxy) associated).getHibernateLazyInitializer().getIdentifier();
+        }
+        EntityPersister associatedPersister = session.getFactory().getMetamodel()
+                .entityPersister(type.getAssociatedEntityName());
+        return uniqueKey == null ? associatedPersister.getIdentifier(associated, session)
+                : associatedPersister.getPropertyValue(associated, uniqueKey);
+    }
+}
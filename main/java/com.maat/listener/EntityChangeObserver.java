@@ -0,0 +1,14 @@
+package com.maat.listener;
+
+/**
+ * Component notified of every row changed through JPA once the transaction making the change has committed.
+ * Changes made with native or bulk statements are not reported and have to be announced by their writers.
+ */
+public interface EntityChangeObserver {
+
+    /**
+     * Called after the transaction containing the change has committed. Must not throw.
+     * @param change - the committed change
+     */
+    void onChange(EntityChange change);
+}
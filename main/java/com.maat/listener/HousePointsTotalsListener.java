@@ -0,0 +1,254 @@
+package com.maat.listener;
+
+import com.maat.model.House;
+import com.maat.model.HousesCupPoints;
+import com.maat.model.Student;
+import org.hibernate.action.spi.AfterTransactionCompletionProcess;
+import org.hibernate.action.spi.BeforeTransactionCompletionProcess;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.*;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.proxy.HibernateProxy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManagerFactory;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.*;
+
+/**
+ * Hibernate listener keeping the house_points_totals and student_points_totals tables exact on every insert, update
+ * and delete of a Houses Cup entry. The changes of a transaction are summed per house, and per student of a house,
+ * as they are flushed, and written in batches just before the transaction commits, so that the totals commit or roll
+ * back together with the entries.
+ * An update whose previous state is unknown causes the totals of its academic year to be summed again instead.
+ * Checkpoints of the totals taken after the earliest date written in the transaction are deleted along with it, as
+ * they no longer hold the sums of the entries before their cutoff; all checkpoints are deleted if a previous date is
+ * unknown.
+ */
+@Component
+public class HousePointsTotalsListener implements PostInsertEventListener, PostUpdateEventListener,
+        PostDeleteEventListener {
+
+    private static final long serialVersionUID = 6229311837650815834L;
+
+    private static final String ADD_TO_TOTAL = "INSERT INTO house_points_totals (academic_year, house, points, entries)\n" +
+            "VALUES (?, ?, ?, ?)\n" +
+            "ON CONFLICT (academic_year, house) DO UPDATE\n" +
+            "SET points = house_points_totals.points + EXCLUDED.points,\n" +
+            "entries = house_points_totals.entries + EXCLUDED.entries";
+
+    private static final String ADD_TO_STUDENT_TOTAL = "INSERT INTO student_points_totals " +
+            "(academic_year, house, student, points, entries)\n" +
+            "VALUES (?, ?, ?, ?, ?)\n" +
+            "ON CONFLICT (academic_year, house, student) DO UPDATE\n" +
+            "SET points = student_points_totals.points + EXCLUDED.points,\n" +
+            "entries = student_points_totals.entries + EXCLUDED.entries";
+
+    private static final String[] SUM_YEAR = {
+            "DELETE FROM house_points_totals WHERE academic_year = ?",
+            "INSERT INTO house_points_totals (academic_year, house, points, entries)\n" +
+                    "SELECT academic_year, house, sum(points), count(*) FROM houses_cup\n" +
+                    "WHERE academic_year = ? AND house IS NOT NULL\n" +
+                    "GROUP BY academic_year, house",
+            "DELETE FROM student_points_totals WHERE academic_year = ?",
+            "INSERT INTO student_points_totals (academic_year, house, student, points, entries)\n" +
+                    "SELECT academic_year, house, student, sum(points), count(*) FROM houses_cup\n" +
+                    "WHERE academic_year = ? AND house IS NOT NULL AND student IS NOT NULL\n" +
+                    "GROUP BY academic_year, house, student"};
+
+    private static final String DELETE_SNAPSHOTS_AFTER = "DELETE FROM points_snapshots WHERE cutoff > ?";
+
+    private static final String DELETE_SNAPSHOTS = "DELETE FROM points_snapshots";
+
+    /**
+     * The changes to the totals made in one transaction that are not written yet.
+     */
+    private static class PendingTotals {
+        private final Map<List<Object>, long[]> deltas = new LinkedHashMap<>();
+        private final Map<List<Object>, long[]> studentDeltas = new LinkedHashMap<>();
+        private final Set<Integer> staleYears = new HashSet<>();
+        private Date earliestDate;
+        private boolean unknownDate;
+
+        void written(Object date) {
+            if (date == null) {
+                unknownDate = true;
+            } else if (earliestDate == null || ((Date) date).before(earliestDate)) {
+                earliestDate = (Date) date;
+            }
+        }
+    }
+
+    @Autowired
+    transient EntityManagerFactory entityManagerFactory;
+
+    private final transient Map<EventSource, PendingTotals> pending =
+            Collections.synchronizedMap(new IdentityHashMap<>());
+
+    private transient int houseIndex;
+
+    private transient int studentIndex;
+
+    private transient int pointsIndex;
+
+    private transient int academicYearIndex;
+
+    private transient int dateIndex;
+
+    @PostConstruct
+    public void register() {
+        SessionFactoryImplementor sessionFactory = entityManagerFactory.unwrap(SessionFactoryImplementor.class);
+        EntityPersister persister = sessionFactory.getMetamodel().entityPersister(HousesCupPoints.class);
+        houseIndex = persister.getEntityMetamodel().getPropertyIndex("house");
+        studentIndex = persister.getEntityMetamodel().getPropertyIndex("student");
+        pointsIndex = persister.getEntityMetamodel().getPropertyIndex("points");
+        academicYearIndex = persister.getEntityMetamodel().getPropertyIndex("academicYear");
+        dateIndex = persister.getEntityMetamodel().getPropertyIndex("date");
+        EventListenerRegistry registry = sessionFactory.getServiceRegistry().getService(EventListenerRegistry.class);
+        registry.appendListeners(EventType.POST_INSERT, this);
+        registry.appendListeners(EventType.POST_UPDATE, this);
+        registry.appendListeners(EventType.POST_DELETE, this);
+    }
+
+    @Override
+    public void onPostInsert(PostInsertEvent event) {
+        if (event.getEntity() instanceof HousesCupPoints) {
+            PendingTotals totals = pendingTotals(event.getSession());
+            totals.written(event.getState()[dateIndex]);
+            add(totals, event.getState(), 1);
+        }
+    }
+
+    @Override
+    public void onPostUpdate(PostUpdateEvent event) {
+        if (!(event.getEntity() instanceof HousesCupPoints)) {
+            return;
+        }
+        PendingTotals totals = pendingTotals(event.getSession());
+        totals.written(event.getState()[dateIndex]);
+        if (event.getOldState() == null) {
+            totals.written(null);
+            totals.staleYears.add((Integer) event.getState()[academicYearIndex]);
+            return;
+        }
+        totals.written(event.getOldState()[dateIndex]);
+        add(totals, event.getOldState(), -1);
+        add(totals, event.getState(), 1);
+    }
+
+    @Override
+    public void onPostDelete(PostDeleteEvent event) {
+        if (event.getEntity() instanceof HousesCupPoints) {
+            PendingTotals totals = pendingTotals(event.getSession());
+            totals.written(event.getDeletedState()[dateIndex]);
+            add(totals, event.getDeletedState(), -1);
+        }
+    }
+
+    @Override
+    public boolean requiresPostCommitHanding(EntityPersister persister) {
+        return false;
+    }
+
+    private void add(PendingTotals totals, Object[] state, int sign) {
+        Object house = state[houseIndex];
+        if (house == null) {
+            return;
+        }
+        String houseName = house instanceof HibernateProxy
+                ? (String) ((HibernateProxy) house).getHibernateLazyInitializer().getIdentifier()
+                : ((House) house).getName();
+        long points = sign * ((Integer) state[pointsIndex]).longValue();
+        long[] delta = totals.deltas.computeIfAbsent(Arrays.asList(state[academicYearIndex], houseName),
+                key -> new long[2]);
+        delta[0] += points;
+        delta[1] += sign;
+        Object student = state[studentIndex];
+        if (student != null) {
+            Object studentId = student instanceof HibernateProxy
+                    ? ((HibernateProxy) student).getHibernateLazyInitializer().getIdentifier()
+                    : ((Student) student).getIdNumber();
+            long[] studentDelta = totals.studentDeltas.computeIfAbsent(
+                    Arrays.asList(state[academicYearIndex], houseName, studentId), key -> new long[2]);
+            studentDelta[0] += points;
+            studentDelta[1] += sign;
+        }
+    }
+
+    /**
+     * Finds the pending changes of the transaction of a session, registering the processes that write them before
+     * the transaction commits and discard them afterwards on the first change.
+     */
+    private PendingTotals pendingTotals(EventSource session) {
+        PendingTotals totals = pending.get(session);
+        if (totals == null) {
+            totals = new PendingTotals();
+            pending.put(session, totals);
+            session.getActionQueue().registerProcess((BeforeTransactionCompletionProcess) completing -> {
+                PendingTotals written = pending.remove(session);
+                if (written != null) {
+                    completing.doWork(connection -> write(connection, written));
+                }
+            });
+            session.getActionQueue().registerProcess(
+                    (AfterTransactionCompletionProcess) (success, completed) -> pending.remove(session));
+        }
+        return totals;
+    }
+
+    private void write(Connection connection, PendingTotals totals) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(ADD_TO_TOTAL)) {
+            for (Map.Entry<List<Object>, long[]> delta : totals.deltas.entrySet()) {
+                if (delta.getValue()[0] == 0 && delta.getValue()[1] == 0
+                        || totals.staleYears.contains(delta.getKey().get(0))) {
+                    continue;
+                }
+                statement.setInt(1, (Integer) delta.getKey().get(0));
+                statement.setString(2, (String) delta.getKey().get(1));
+                statement.setLong(3, delta.getValue()[0]);
+                statement.setLong(4, delta.getValue()[1]);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+        try (PreparedStatement statement = connection.prepareStatement(ADD_TO_STUDENT_TOTAL)) {
+            for (Map.Entry<List<Object>, long[]> delta : totals.studentDeltas.entrySet()) {
+                if (delta.getValue()[0] == 0 && delta.getValue()[1] == 0
+                        || totals.staleYears.contains(delta.getKey().get(0))) {
+                    continue;
+                }
+                statement.setInt(1, (Integer) delta.getKey().get(0));
+                statement.setString(2, (String) delta.getKey().get(1));
+                statement.setInt(3, ((Number) delta.getKey().get(2)).intValue());
+                statement.setLong(4, delta.getValue()[0]);
+                statement.setLong(5, delta.getValue()[1]);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+        for (Integer year : totals.staleYears) {
+            for (String sql : SUM_YEAR) {
+                try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                    statement.setInt(1, year);
+                    statement.executeUpdate();
+                }
+            }
+        }
+        if (totals.unknownDate) {
+            try (PreparedStatement statement = connection.prepareStatement(DELETE_SNAPSHOTS)) {
+                statement.executeUpdate();
+            }
+        } else if (totals.earliestDate != null) {
+            try (PreparedStatement statement = connection.prepareStatement(DELETE_SNAPSHOTS_AFTER)) {
+                statement.setTimestamp(1, new Timestamp(totals.earliestDate.getTime()));
+                statement.executeUpdate();
+            }
+        }
+    }
+}
@@ -26,7 +26,8 @@ public class ChangeLog implements Serializable {
 
     private static final long serialVersionUID = 6973826297743277088L;
     @Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "change_logs_id_seq")
+    @SequenceGenerator(name = "change_logs_id_seq", sequenceName = "change_logs_id_seq", allocationSize = 50)
     @Column(name="id")
     private int id;
 
@@ -0,0 +1,29 @@
+package com.maat.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.io.Serializable;
+
+/**
+ * Representation of the bounds on the population of a house, as sent to resolve the undecided house change requests.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class HouseCapacity implements Serializable {
+
+    private static final long serialVersionUID = 7390152846613027164L;
+
+    /** Name of the house */
+    private String house;
+
+    /** Smallest population the house may be left with, or null for no lower bound */
+    private Integer min;
+
+    /** Largest population the house may grow to, or null for no upper bound */
+    private Integer max;
+}
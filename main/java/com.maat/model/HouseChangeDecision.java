@@ -0,0 +1,35 @@
+package com.maat.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.io.Serializable;
+
+/**
+ * Representation of the decision on one house change request, as sent to decide many requests at once.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class HouseChangeDecision implements Serializable {
+
+    private static final long serialVersionUID = 2950416837452178093L;
+
+    /** Status of an approved request, upon which the student moves to the target house */
+    public static final String APPROVED = "APPROVED";
+
+    /** Status of a denied request */
+    public static final String DENIED = "DENIED";
+
+    /** Id of the decided request */
+    private long id;
+
+    /** APPROVED or DENIED */
+    private String status;
+
+    /** Reason given to the student for a denial */
+    private String denialExplanation;
+}
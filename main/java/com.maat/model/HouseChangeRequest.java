@@ -3,6 +3,7 @@ package com.maat.model;
 import com.maat.exception.InvalidDateException;
 import com.maat.exception.InvalidStatusException;
 import com.maat.helper.ValidityChecker;
+import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
@@ -10,8 +11,12 @@ import lombok.Setter;
 
 import javax.persistence.*;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.MessageFormat;
 import java.util.Date;
+import java.util.Locale;
 
 /**
  * POJO class to represent a House Change Request from the Maat database as an object.
@@ -48,7 +53,9 @@ public class HouseChangeRequest implements Serializable {
     private static final long serialVersionUID = 6708092730020136612L;
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "house_change_request_id_seq")
+    @SequenceGenerator(name = "house_change_request_id_seq", sequenceName = "house_change_request_id_seq",
+            allocationSize = 50)
     private long id;
 
     @ManyToOne(targetEntity = Student.class)
@@ -78,6 +85,22 @@ public class HouseChangeRequest implements Serializable {
     @Column(name="decided_date")
     private Date decidedDate;
 
+    /** Text search document of both explanations, maintained by the database */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @Column(name="search_vector", insertable = false, updatable = false,
+            columnDefinition = "tsvector GENERATED ALWAYS AS (to_tsvector('english', " +
+                    "coalesce(explanation, '') || ' ' || coalesce(denial_explanation, ''))) STORED")
+    private String searchVector;
+
+    /**
+     * Hash of the student, the houses and the explanation of the request, which is unique among all requests. A
+     * request submitted again, such as by a double click, inserts no row when it is added through
+     * {@link com.maat.repository.HouseChangeRequestSubmission#submit(HouseChangeRequest) submit}.
+     */
+    @Column(name="idempotency_key", length = 100)
+    private String idempotencyKey;
+
     /**
      * Checks to see if the data entered into a house change request object is valid.
      * @throws InvalidStatusException -
@@ -106,6 +129,44 @@ public class HouseChangeRequest implements Serializable {
         }
     }
 
+    /**
+     * Derives the idempotency key of the request from its contents before it is written.
+     */
+    @PrePersist
+    @PreUpdate
+    public void updateIdempotencyKey() {
+        this.idempotencyKey = idempotencyKey(this.student, this.oldHouse, this.targetHouse, this.explanation);
+    }
+
+    /**
+     * Derives the idempotency key of a request: the SHA-256 hash of the id number of the student, the names of the
+     * houses and the explanation with its whitespace collapsed and in lower case, separated by newlines.
+     * Migration V008 derives the keys of existing requests in the same way.
+     * @param student - the student making the request
+     * @param oldHouse - the house the student is in
+     * @param targetHouse - the house the student asks for
+     * @param explanation - the explanation of the request
+     * @return the key as a hexadecimal string
+     */
+    public static String idempotencyKey(Student student, House oldHouse, House targetHouse, String explanation) {
+        String normalizedExplanation = explanation == null ? ""
+                : explanation.replaceAll("\\s+", " ").trim().toLowerCase(Locale.ROOT);
+        String contents = (student == null ? "" : student.getIdNumber()) + "\n"
+                + (oldHouse == null ? "" : oldHouse.getName()) + "\n"
+                + (targetHouse == null ? "" : targetHouse.getName()) + "\n"
+                + normalizedExplanation;
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(contents.getBytes(StandardCharsets.UTF_8));
+            StringBuilder key = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                key.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     /**
      * Converts a HouseCHangeRequest object into a
      * {@link com.maat.model.HouseChangeRequestSimple HouseCHangeRequestSimple} object so that it can be displayed
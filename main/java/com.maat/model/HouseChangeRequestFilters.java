@@ -38,4 +38,10 @@ public class HouseChangeRequestFilters implements Serializable {
     private Date endDate = null;
     @Builder.Default
     private String searchString = null;
+
+    /**
+     * Words to find in the explanations, in web search syntax: quoted phrases, "or" and a leading "-" to exclude
+     */
+    @Builder.Default
+    private String fullText = null;
 }
@@ -0,0 +1,59 @@
+package com.maat.model;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import javax.persistence.*;
+import java.io.Serializable;
+
+/**
+ * POJO class to represent the running total of the Houses Cup points of a house in an academic year. The totals
+ * are kept up to date in the same transaction as every write to the houses_cup table, so that the leaderboard does
+ * not have to sum all entries of the year.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@IdClass(HousePointsTotal.Key.class)
+@Table(name = "house_points_totals")
+public class HousePointsTotal implements Serializable {
+
+    private static final long serialVersionUID = 2817044165371032283L;
+
+    @Id
+    @Column(name = "academic_year")
+    private int academicYear;
+
+    @Id
+    @Column(name = "house")
+    private String house;
+
+    @Column(name = "points", nullable = false)
+    private long points;
+
+    /** Number of Houses Cup entries the points are summed from */
+    @Column(name = "entries", nullable = false)
+    private long entries;
+
+    /**
+     * Composite key of a total: one per house per academic year.
+     */
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @EqualsAndHashCode
+    public static class Key implements Serializable {
+
+        private static final long serialVersionUID = -6400926281245733905L;
+
+        private int academicYear;
+
+        private String house;
+    }
+}
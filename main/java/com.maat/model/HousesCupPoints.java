@@ -3,6 +3,7 @@ package com.maat.model;
 import com.maat.exception.InvalidDateException;
 import com.maat.helper.ValidityChecker;
 import com.maat.helper.RecordConverter;
+import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
@@ -47,6 +48,12 @@ public class HousesCupPoints implements Serializable {
 
     private static final long serialVersionUID = -4882222639556115374L;
 
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "houses_cup_id_seq")
+    @SequenceGenerator(name = "houses_cup_id_seq", sequenceName = "houses_cup_id_seq", allocationSize = 50)
+    @Column(name = "id")
+    private Long id;
+
     @OneToOne
     @JoinColumn(name = "student", referencedColumnName = "id_number")
     private Student student;
@@ -65,18 +72,34 @@ public class HousesCupPoints implements Serializable {
     @Column(name = "points")
     private int points;
 
-    @Id
-    @Column(name = "date")
+    @Column(name = "date", nullable = false)
     private Date date;
 
     @Column(name = "academic_year")
     private int academicYear;
 
+    /** Text search document of the explanation, maintained by the database */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @Column(name = "search_vector", insertable = false, updatable = false,
+            columnDefinition = "tsvector GENERATED ALWAYS AS (to_tsvector('english', coalesce(explanation, ''))) STORED")
+    private String searchVector;
+
     public void setDate(Date date) throws ParseException {
         this.date = date;
         this.academicYear = RecordConverter.getAcademicYear(date);
     }
 
+    /**
+     * Sets the date of an entry whose academic year is already known, such as one of many entries of one event.
+     * @param date - the date of the entry
+     * @param academicYear - the academic year the date falls in
+     */
+    public void setDate(Date date, int academicYear) {
+        this.date = date;
+        this.academicYear = academicYear;
+    }
+
     /**
      * Converts a HousesCupPoints object into a {@link com.maat.model.HousesCupPointsSimple HousesCupPointsSimple}
      * object so that it can be displayed simply as text.
@@ -84,6 +107,7 @@ public class HousesCupPoints implements Serializable {
      */
     public HousesCupPointsSimple createSimpleCopy() {
         HousesCupPointsSimple simpleCopy = new HousesCupPointsSimple();
+        simpleCopy.setId(this.id);
         simpleCopy.setStudent(this.student.getFirstName() + " " + this.student.getLastName());
         simpleCopy.setAssigningUser(this.assigningUser.getFirstName() + " " + this.assigningUser.getLastName());
         simpleCopy.setExplanation(this.explanation);
@@ -109,7 +133,7 @@ public class HousesCupPoints implements Serializable {
     }
 
     /**
-     * Copies the attributes other than serialUID from one HousesCupPoints object to this one.
+     * Copies the attributes other than serialUID and id from one HousesCupPoints object to this one.
      * @param housesCupPoints - the object to copy
      */
     public void copy(HousesCupPoints housesCupPoints) {
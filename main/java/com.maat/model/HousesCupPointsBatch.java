@@ -0,0 +1,35 @@
+package com.maat.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Representation of many Houses Cup awards sent in one request: a list of complete entries, and/or one template
+ * entry given to each of a list of students.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class HousesCupPointsBatch implements Serializable {
+
+    private static final long serialVersionUID = -1757839164471803617L;
+
+    /** Complete entries */
+    private List<HousesCupPoints> awards = new ArrayList<>();
+
+    /**
+     * Entry given to every student in studentIds. Its student is ignored, and without a house the points go to the
+     * house of each student.
+     */
+    private HousesCupPoints template;
+
+    /** Id numbers of the students receiving the template */
+    private List<Integer> studentIds = new ArrayList<>();
+}
@@ -49,5 +49,11 @@ public class HousesCupPointsFilters implements Serializable {
     @Builder.Default
     private String searchString = null;
 
+    /**
+     * Words to find in the explanations, in web search syntax: quoted phrases, "or" and a leading "-" to exclude
+     */
+    @Builder.Default
+    private String fullText = null;
+
 
 }
@@ -0,0 +1,37 @@
+package com.maat.model;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * POJO class to represent an entry into the Houses Cup as an object without links to other objects.
+ * @author Brand Hauser
+ */
+@NoArgsConstructor
+@Getter
+@Setter
+public class HousesCupPointsSimple implements Serializable {
+
+    private static final long serialVersionUID = 2816493058217463915L;
+
+    /** Id of the entry, to update or delete it with */
+    private Long id;
+
+    private String student;
+
+    private String assigningUser;
+
+    private String explanation;
+
+    private String house;
+
+    private int points;
+
+    private Date date;
+
+    private int academicYear;
+}
@@ -0,0 +1,62 @@
+package com.maat.model;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * POJO class to represent a roster import running in the background, as reported to the Maat webapp.
+ */
+@Getter
+@Setter
+public class ImportJob implements Serializable {
+
+    private static final long serialVersionUID = 4112578000396473051L;
+
+    /**
+     * The stages an import job passes through.
+     */
+    public enum State {
+        QUEUED, RUNNING, COMPLETED, FAILED, CANCELLED
+    }
+
+    private final String id;
+
+    private final String fileName;
+
+    private final Date created = new Date();
+
+    private final ImportProgress progress = new ImportProgress();
+
+    private volatile State state = State.QUEUED;
+
+    private volatile Date started;
+
+    private volatile Date finished;
+
+    private volatile String message;
+
+    public ImportJob(String id, String fileName) {
+        this.id = id;
+        this.fileName = fileName;
+    }
+
+    /**
+     * Calculates the number of rows written per second since the job started.
+     * @return the throughput in rows per second, 0 if the job has not started
+     */
+    public double getThroughput() {
+        if (started == null) {
+            return 0;
+        }
+        long end = finished == null ? System.currentTimeMillis() : finished.getTime();
+        long millis = Math.max(1, end - started.getTime());
+        return progress.getRowsWritten().get() * 1000.0 / millis;
+    }
+
+    public boolean isDone() {
+        return state == State.COMPLETED || state == State.FAILED || state == State.CANCELLED;
+    }
+}
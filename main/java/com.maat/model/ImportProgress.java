@@ -0,0 +1,61 @@
+package com.maat.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.Getter;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Running counters of a roster import so that its progress can be reported while the file is still being read.
+ */
+@Getter
+public class ImportProgress implements Serializable {
+
+    private static final long serialVersionUID = -2318074425532712960L;
+
+    /** Maximum number of rejection messages kept, so a broken file cannot fill the heap with errors */
+    public static final int MAX_ERRORS = 100;
+
+    private final AtomicLong rowsParsed = new AtomicLong();
+
+    private final AtomicLong rowsWritten = new AtomicLong();
+
+    private final AtomicLong rowsRejected = new AtomicLong();
+
+    private final AtomicLong rowsInserted = new AtomicLong();
+
+    private final AtomicLong rowsUpdated = new AtomicLong();
+
+    /** Rows skipped because they are identical to the previous import of the same sheet */
+    private final AtomicLong rowsUnchanged = new AtomicLong();
+
+    /** Students imported from the same sheet before who are missing from this file */
+    private final AtomicLong studentsVanished = new AtomicLong();
+
+    private final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+
+    @JsonIgnore
+    private volatile boolean cancelRequested;
+
+    /**
+     * Registers a row that could not be imported.
+     * @param message - the reason the row was rejected
+     */
+    public void reject(String message) {
+        rowsRejected.incrementAndGet();
+        if (errors.size() < MAX_ERRORS) {
+            errors.add(message);
+        }
+    }
+
+    /**
+     * Asks the import to stop at the next row. Rows written before that remain in the database.
+     */
+    public void cancel() {
+        cancelRequested = true;
+    }
+}
@@ -209,6 +209,23 @@ public class Student extends User implements Serializable {
         }
     }
 
+    /**
+     * Copies the attributes present in an imported roster row onto this student. Attributes the row does not
+     * provide are left untouched so that sheets from different sources complement each other.
+     * @param imported - the partially filled student parsed from a roster row
+     */
+    public void mergeImportedData(Student imported) {
+        if (imported.getFirstName() != null) this.firstName = imported.getFirstName();
+        if (imported.getLastName() != null) this.lastName = imported.getLastName();
+        if (imported.getLinkName() != null) this.linkName = imported.getLinkName();
+        if (imported.getEmail() != null) this.email = imported.getEmail();
+        if (imported.getGender() != null) this.gender = imported.getGender();
+        if (imported.getDob() != null) this.dob = imported.getDob();
+        if (imported.getNationality() != null) this.nationality = imported.getNationality();
+        if (imported.getProgram() != null) this.program = imported.getProgram();
+        if (imported.getCohort() != null) this.cohort = imported.getCohort();
+    }
+
     public void setIdNumber(Integer idNumber) {
         this.idNumber = idNumber;
     }
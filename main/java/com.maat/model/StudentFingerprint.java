@@ -0,0 +1,54 @@
+package com.maat.model;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import javax.persistence.*;
+import java.io.Serializable;
+
+/**
+ * POJO class to represent the content hash of the roster row a student was last imported from, per source sheet.
+ * Used to skip rows that did not change since the previous import.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@IdClass(StudentFingerprint.Key.class)
+@Table(name = "student_fingerprints")
+public class StudentFingerprint implements Serializable {
+
+    private static final long serialVersionUID = -3027981563340516711L;
+
+    @Id
+    @Column(name = "id_number")
+    private int idNumber;
+
+    @Id
+    @Column(name = "source")
+    private String source;
+
+    @Column(name = "hash", nullable = false)
+    private long hash;
+
+    /**
+     * Composite key of a fingerprint: one per student per source sheet.
+     */
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @EqualsAndHashCode
+    public static class Key implements Serializable {
+
+        private static final long serialVersionUID = 5560232125934474021L;
+
+        private int idNumber;
+
+        private String source;
+    }
+}
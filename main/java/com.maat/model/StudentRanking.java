@@ -0,0 +1,40 @@
+package com.maat.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.io.Serializable;
+
+/**
+ * Representation of the position of a student in the Houses Cup ranking of their house, or of all students.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class StudentRanking implements Serializable {
+
+    private static final long serialVersionUID = 4183260527769614381L;
+
+    private int studentId;
+
+    private String firstName;
+
+    private String lastName;
+
+    /** House the points were earned for, or null in the ranking of all students */
+    private String house;
+
+    private long points;
+
+    /** Position in the ranking, shared by students with the same points */
+    private long rank;
+
+    /** Number of students in the ranking */
+    private long rankedStudents;
+
+    /** Percentage of the ranked students with at most as many points */
+    private double percentile;
+}
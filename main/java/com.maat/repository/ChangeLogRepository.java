@@ -1,6 +1,6 @@
 package com.maat.repository;
 
-import com.maat.model.Student;
+import com.maat.model.ChangeLog;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
 
@@ -8,5 +8,5 @@ import org.springframework.stereotype.Repository;
  * JPA Repository adaptation for the ChangeLog entity.
  */
 @Repository
-public interface ChangeLogRepository extends JpaRepository<Student, Integer> {
+public interface ChangeLogRepository extends JpaRepository<ChangeLog, Integer> {
 }
@@ -8,6 +8,7 @@ import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 
@@ -16,7 +17,8 @@ import java.util.List;
  * @author Brand Hauser
  */
 @Repository
-public interface HouseChangeRequestRepository extends JpaRepository<HouseChangeRequest, Integer>, JpaSpecificationExecutor<HouseChangeRequest> {
+public interface HouseChangeRequestRepository extends JpaRepository<HouseChangeRequest, Long>, JpaSpecificationExecutor<HouseChangeRequest>,
+        HouseChangeRequestSubmission {
 
     @Override
     @EntityGraph(value = "graph.ChangeRequest.simple", type = EntityGraph.EntityGraphType.FETCH)
@@ -25,12 +27,28 @@ public interface HouseChangeRequestRepository extends JpaRepository<HouseChangeR
     @EntityGraph(value = "graph.ChangeRequest.simple", type = EntityGraph.EntityGraphType.FETCH)
     List<HouseChangeRequest> findAllByStudent(Student studentId);
 
-    boolean existsByStudentAndOldHouseAndTargetHouseAndExplanation(Student student, House oldHouse, House targetHouse, String explanation);
+    boolean existsByIdempotencyKey(String idempotencyKey);
 
     @EntityGraph(value = "graph.ChangeRequest.simple", type = EntityGraph.EntityGraphType.FETCH)
-    HouseChangeRequest getByStudentAndOldHouseAndTargetHouseAndExplanation(Student student, House oldHouse, House targetHouse, String explanation);
+    HouseChangeRequest getByIdempotencyKey(String idempotencyKey);
 
-    void deleteByStudentAndOldHouseAndTargetHouseAndExplanation(Student student, House oldHouse, House targetHouse, String explanation);
+    @Transactional
+    void deleteByIdempotencyKey(String idempotencyKey);
+
+    default boolean existsByStudentAndOldHouseAndTargetHouseAndExplanation(Student student, House oldHouse,
+                                                                           House targetHouse, String explanation) {
+        return existsByIdempotencyKey(HouseChangeRequest.idempotencyKey(student, oldHouse, targetHouse, explanation));
+    }
+
+    default HouseChangeRequest getByStudentAndOldHouseAndTargetHouseAndExplanation(Student student, House oldHouse,
+                                                                                   House targetHouse, String explanation) {
+        return getByIdempotencyKey(HouseChangeRequest.idempotencyKey(student, oldHouse, targetHouse, explanation));
+    }
+
+    default void deleteByStudentAndOldHouseAndTargetHouseAndExplanation(Student student, House oldHouse,
+                                                                        House targetHouse, String explanation) {
+        deleteByIdempotencyKey(HouseChangeRequest.idempotencyKey(student, oldHouse, targetHouse, explanation));
+    }
 
     @Query(value = "select key, array_agg(distinct value)\n" +
             "from house_change_requests, jsonb_each_text(to_jsonb(house_change_requests))\n" +
@@ -40,6 +58,7 @@ public interface HouseChangeRequestRepository extends JpaRepository<HouseChangeR
             "and key != 'id'\n" +
             "and key != 'request_date'\n" +
             "and key != 'decided_date'\n" +
+            "and key != 'idempotency_key'\n" +
             "group by key;", nativeQuery = true)
     List<Object> getFilterables();
 }
@@ -0,0 +1,18 @@
+package com.maat.repository;
+
+import com.maat.model.HouseChangeRequest;
+
+/**
+ * Custom part of the {@link HouseChangeRequestRepository HouseChangeRequestRepository} adding requests that may have
+ * been submitted before.
+ */
+public interface HouseChangeRequestSubmission {
+
+    /**
+     * Adds a request unless the same request was submitted before, with one INSERT ... ON CONFLICT DO NOTHING on
+     * the idempotency key, so that double clicks and retries add one request.
+     * @param request - the request to add
+     * @return the added request, or the request submitted before
+     */
+    HouseChangeRequest submit(HouseChangeRequest request);
+}
@@ -0,0 +1,62 @@
+package com.maat.repository;
+
+import com.maat.model.HouseChangeRequest;
+import com.maat.service.TableVersions;
+import org.hibernate.query.NativeQuery;
+import org.hibernate.type.StandardBasicTypes;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+/**
+ * Adds house change requests with an explicit insert, naming every column it binds, that does nothing when a request
+ * with the same idempotency key exists. Identifiers are drawn from the sequence the entity uses; its pooled optimizer
+ * treats every value of the sequence as the bound of a block of identifiers of its own, so a value taken here is
+ * never handed out by Hibernate.
+ */
+public class HouseChangeRequestSubmissionImpl implements HouseChangeRequestSubmission {
+
+    private static final String INSERT = "INSERT INTO house_change_requests (id, student, old_house, target_house,\n" +
+            "explanation, request_date, status, denial_explanation, decided_date, idempotency_key)\n" +
+            "VALUES (nextval('house_change_request_id_seq'), :student, :oldHouse, :targetHouse,\n" +
+            ":explanation, :requestDate, :status, :denialExplanation, :decidedDate, :idempotencyKey)\n" +
+            "ON CONFLICT (idempotency_key) DO NOTHING";
+
+    @PersistenceContext
+    EntityManager entityManager;
+
+    @Autowired
+    TableVersions tableVersions;
+
+    @Override
+    @Transactional
+    public HouseChangeRequest submit(HouseChangeRequest request) {
+        if (request.getStudent() == null) {
+            throw new IllegalArgumentException("The request has no student");
+        }
+        request.updateIdempotencyKey();
+        int inserted = entityManager.createNativeQuery(INSERT)
+                .unwrap(NativeQuery.class)
+                .setParameter("student", request.getStudent().getIdNumber(), StandardBasicTypes.INTEGER)
+                .setParameter("oldHouse", request.getOldHouse() == null ? null : request.getOldHouse().getName(),
+                        StandardBasicTypes.STRING)
+                .setParameter("targetHouse", request.getTargetHouse() == null ? null
+                        : request.getTargetHouse().getName(), StandardBasicTypes.STRING)
+                .setParameter("explanation", request.getExplanation(), StandardBasicTypes.TEXT)
+                .setParameter("requestDate", request.getRequestDate(), StandardBasicTypes.TIMESTAMP)
+                .setParameter("status", request.getStatus(), StandardBasicTypes.STRING)
+                .setParameter("denialExplanation", request.getDenialExplanation(), StandardBasicTypes.TEXT)
+                .setParameter("decidedDate", request.getDecidedDate(), StandardBasicTypes.TIMESTAMP)
+                .setParameter("idempotencyKey", request.getIdempotencyKey(), StandardBasicTypes.STRING)
+                .executeUpdate();
+        if (inserted > 0) {
+            tableVersions.bump("house_change_requests");
+        }
+        return entityManager.createQuery("SELECT r FROM HouseChangeRequest r\n" +
+                        "WHERE r.idempotencyKey = :idempotencyKey", HouseChangeRequest.class)
+                .setParameter("idempotencyKey", request.getIdempotencyKey())
+                .getSingleResult();
+    }
+}
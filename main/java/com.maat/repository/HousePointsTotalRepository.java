@@ -0,0 +1,40 @@
+package com.maat.repository;
+
+import com.maat.model.HousePointsTotal;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+/**
+ * JPA Repository adaptation for the HousePointsTotal entity.
+ */
+@Repository
+public interface HousePointsTotalRepository extends JpaRepository<HousePointsTotal, HousePointsTotal.Key> {
+
+    /**
+     * Reads the leaderboard of an academic year in the shape of
+     * {@link HousesCupPointsRepository#getPointsByHouse(int) getPointsByHouse}: pairs of house and points.
+     */
+    @Query(value = "SELECT house, points FROM house_points_totals\n" +
+            "WHERE academic_year = :#{#year}\n" +
+            "AND entries > 0", nativeQuery = true)
+    List<Object> getPointsByHouse(@Param("year") int year);
+
+    /**
+     * Compares the stored totals with the sums of the entries they should hold.
+     * @return academic year, house, stored points, summed points, stored entries and counted entries of every total
+     * that differs
+     */
+    @Query(value = "SELECT coalesce(t.academic_year, s.academic_year), coalesce(t.house, s.house),\n" +
+            "coalesce(t.points, 0), coalesce(s.points, 0), coalesce(t.entries, 0), coalesce(s.entries, 0)\n" +
+            "FROM house_points_totals t\n" +
+            "FULL JOIN (SELECT academic_year, house, sum(points) AS points, count(*) AS entries FROM houses_cup\n" +
+            "    WHERE house IS NOT NULL GROUP BY academic_year, house) s\n" +
+            "ON s.academic_year = t.academic_year AND s.house = t.house\n" +
+            "WHERE coalesce(t.points, 0) <> coalesce(s.points, 0)\n" +
+            "OR coalesce(t.entries, 0) <> coalesce(s.entries, 0)", nativeQuery = true)
+    List<Object[]> findMismatches();
+}
@@ -16,13 +16,13 @@ import java.util.List;
  * @author Brand Hauser
  */
 @Repository
-public interface HousesCupPointsRepository extends JpaRepository<HousesCupPoints, Integer>, JpaSpecificationExecutor {
+public interface HousesCupPointsRepository extends JpaRepository<HousesCupPoints, Long>, JpaSpecificationExecutor {
 
     @Override
     @EntityGraph(value = "graph.Student.house.id", type = EntityGraph.EntityGraphType.FETCH)
     List<HousesCupPoints> findAll();
 
-    HousesCupPoints findByDate(Date date);
+    List<HousesCupPoints> findByDate(Date date);
 
     boolean existsByDate(Date date);
 
@@ -0,0 +1,168 @@
+package com.maat.repository;
+
+import com.maat.model.Student;
+import org.hibernate.Session;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.springframework.stereotype.Repository;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Set-based writer for roster imports. Rows are streamed into a temporary staging table with PostgreSQL's
+ * COPY protocol and then merged into the students and user_roles tables with a single statement per table,
+ * instead of one JPA save and one role insert per student.
+ * Must be called within a transaction.
+ */
+@Repository
+public class StudentBulkRepository {
+
+    private static final String CREATE_STAGING = "CREATE TEMP TABLE IF NOT EXISTS student_import_staging (\n" +
+            "line integer, id_number integer, first_name varchar(255), last_name varchar(255),\n" +
+            "link_name varchar(255), email varchar(255), gender varchar(255), birthday timestamp,\n" +
+            "nationality varchar(255), program varchar(255), cohort integer\n" +
+            ") ON COMMIT DELETE ROWS";
+
+    private static final String COPY_STAGING = "COPY student_import_staging (line, id_number, first_name, " +
+            "last_name, link_name, email, gender, birthday, nationality, program, cohort) FROM STDIN WITH (FORMAT csv)";
+
+    /** Only the attributes present in the sheet overwrite existing data; the last row wins for repeated numbers */
+    private static final String MERGE_STUDENTS = "INSERT INTO students AS s (id_number, first_name, last_name,\n" +
+            "link_name, email, gender, birthday, nationality, program, cohort, enabled)\n" +
+            "SELECT DISTINCT ON (id_number) id_number, first_name, last_name, link_name, email, gender, birthday,\n" +
+            "nationality, program, cohort, true\n" +
+            "FROM student_import_staging ORDER BY id_number, line DESC\n" +
+            "ON CONFLICT (id_number) DO UPDATE SET\n" +
+            "first_name = COALESCE(EXCLUDED.first_name, s.first_name),\n" +
+            "last_name = COALESCE(EXCLUDED.last_name, s.last_name),\n" +
+            "link_name = COALESCE(EXCLUDED.link_name, s.link_name),\n" +
+            "email = COALESCE(EXCLUDED.email, s.email),\n" +
+            "gender = COALESCE(EXCLUDED.gender, s.gender),\n" +
+            "birthday = COALESCE(EXCLUDED.birthday, s.birthday),\n" +
+            "nationality = COALESCE(EXCLUDED.nationality, s.nationality),\n" +
+            "program = COALESCE(EXCLUDED.program, s.program),\n" +
+            "cohort = COALESCE(EXCLUDED.cohort, s.cohort)\n" +
+            "RETURNING (xmax = 0) AS inserted";
+
+    /** Mirrors {@link com.maat.model.Student#evaluateStatus()} */
+    private static final String EVALUATE_STATUS = "UPDATE students s SET status = CASE\n" +
+            "WHEN s.house IS NOT NULL THEN 'INHOUSE'\n" +
+            "WHEN s.do_group IS NOT NULL THEN 'READY FOR HOUSE'\n" +
+            "WHEN s.email IS NULL AND (s.gender IS NULL OR s.nationality IS NULL) THEN 'MISSING INFORMATION'\n" +
+            "WHEN s.email IS NULL THEN 'MISSING CANVAS INFO'\n" +
+            "WHEN s.gender IS NULL OR s.nationality IS NULL THEN 'MISSING OSIRIS INFO'\n" +
+            "WHEN s.first_name IS NULL OR s.last_name IS NULL OR s.program IS NULL\n" +
+            "OR s.cohort IS NULL OR s.experience IS NULL THEN 'MISSING INFORMATION'\n" +
+            "ELSE s.status END\n" +
+            "WHERE s.id_number IN (SELECT id_number FROM student_import_staging)";
+
+    /** user_roles has no unique constraint to conflict on, so existing roles are skipped explicitly */
+    private static final String ADD_STUDENT_ROLES = "INSERT INTO user_roles (user_id, role_name)\n" +
+            "SELECT DISTINCT st.id_number, 'ROLE_STUDENT' FROM student_import_staging st\n" +
+            "WHERE NOT EXISTS (SELECT 1 FROM user_roles ur\n" +
+            "WHERE ur.user_id = st.id_number AND ur.role_name = 'ROLE_STUDENT')";
+
+    private static final String UPSERT_FINGERPRINTS = "INSERT INTO student_fingerprints (id_number, source, hash)\n" +
+            "SELECT DISTINCT ON (f.id_number) f.id_number, ?, f.hash\n" +
+            "FROM unnest(?::integer[], ?::bigint[]) WITH ORDINALITY AS f(id_number, hash, line)\n" +
+            "ORDER BY f.id_number, f.line DESC\n" +
+            "ON CONFLICT (id_number, source) DO UPDATE SET hash = EXCLUDED.hash";
+
+    @PersistenceContext
+    EntityManager entityManager;
+
+    /**
+     * Writes a chunk of parsed roster rows to the database.
+     * @param rows - the partially filled students parsed from the roster
+     * @return the number of students that did not exist yet
+     */
+    public int upsert(List<Student> rows) {
+        return entityManager.unwrap(Session.class).doReturningWork(connection -> {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute(CREATE_STAGING);
+            }
+            copyToStaging(connection, rows);
+            int inserted = 0;
+            try (Statement statement = connection.createStatement()) {
+                try (ResultSet result = statement.executeQuery(MERGE_STUDENTS)) {
+                    while (result.next()) {
+                        if (result.getBoolean(1)) {
+                            inserted++;
+                        }
+                    }
+                }
+                statement.executeUpdate(EVALUATE_STATUS);
+                statement.executeUpdate(ADD_STUDENT_ROLES);
+            }
+            return inserted;
+        });
+    }
+
+    /**
+     * Stores the content hashes of imported rows with a single statement.
+     * @param source - the sheet the rows were read from
+     * @param ids - the student numbers of the rows
+     * @param hashes - the content hashes of the rows, in the same order as the student numbers
+     */
+    public void upsertFingerprints(String source, Integer[] ids, Long[] hashes) {
+        entityManager.unwrap(Session.class).doWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(UPSERT_FINGERPRINTS)) {
+                statement.setString(1, source);
+                statement.setArray(2, connection.createArrayOf("integer", ids));
+                statement.setArray(3, connection.createArrayOf("bigint", hashes));
+                statement.executeUpdate();
+            }
+        });
+    }
+
+    private void copyToStaging(Connection connection, List<Student> rows) throws SQLException {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        CopyIn copyIn = connection.unwrap(PGConnection.class).getCopyAPI().copyIn(COPY_STAGING);
+        try {
+            StringBuilder line = new StringBuilder();
+            int lineNumber = 0;
+            for (Student row : rows) {
+                line.setLength(0);
+                line.append(lineNumber++).append(',').append(row.getIdNumber());
+                appendValue(line, row.getFirstName());
+                appendValue(line, row.getLastName());
+                appendValue(line, row.getLinkName());
+                appendValue(line, row.getEmail());
+                appendValue(line, row.getGender());
+                Date dob = row.getDob();
+                appendValue(line, dob == null ? null : dateFormat.format(dob));
+                appendValue(line, row.getNationality());
+                appendValue(line, row.getProgram());
+                appendValue(line, row.getCohort() == null ? null : row.getCohort().toString());
+                line.append('\n');
+                byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+                copyIn.writeToCopy(bytes, 0, bytes.length);
+            }
+            copyIn.endCopy();
+        } finally {
+            if (copyIn.isActive()) {
+                copyIn.cancelCopy();
+            }
+        }
+    }
+
+    /**
+     * Appends a value in COPY csv format, where an unquoted empty field is read as NULL.
+     */
+    private void appendValue(StringBuilder line, String value) {
+        line.append(',');
+        if (value != null) {
+            line.append('"').append(value.replace("\"", "\"\"")).append('"');
+        }
+    }
+}
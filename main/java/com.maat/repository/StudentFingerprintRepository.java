@@ -0,0 +1,36 @@
+package com.maat.repository;
+
+import com.maat.model.StudentFingerprint;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * JPA Repository adaptation for the StudentFingerprint entity.
+ */
+@Repository
+public interface StudentFingerprintRepository extends JpaRepository<StudentFingerprint, StudentFingerprint.Key> {
+
+    /**
+     * Finds the stored hashes of the given students for one source. Fingerprints of students that have
+     * since been deleted are ignored, so that those students are imported again.
+     */
+    @Query(value = "SELECT f.id_number, f.hash FROM student_fingerprints f\n" +
+            "JOIN students s ON s.id_number = f.id_number\n" +
+            "WHERE f.source = :#{#source}\n" +
+            "AND f.id_number IN :#{#ids}", nativeQuery = true)
+    List<Object[]> findHashes(@Param("source") String source, @Param("ids") Collection<Integer> ids);
+
+    /**
+     * Counts the students with a fingerprint for one source, ignoring fingerprints of students that have since been
+     * deleted like {@link #findHashes(String, Collection) findHashes} does.
+     */
+    @Query(value = "SELECT count(*) FROM student_fingerprints f\n" +
+            "JOIN students s ON s.id_number = f.id_number\n" +
+            "WHERE f.source = :#{#source}", nativeQuery = true)
+    long countStudentsBySource(@Param("source") String source);
+}
@@ -0,0 +1,264 @@
+package com.maat.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.maat.helper.FilterSpecifications;
+import com.maat.model.*;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.hibernate.jpa.QueryHints;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.criteria.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Service exporting filtered tables as CSV or newline-delimited JSON. Rows are read from a forward-only result
+ * stream and written to the response one at a time, and the persistence context is cleared every
+ * {@link #CLEAR_INTERVAL} rows, so the memory used does not depend on the number of rows exported.
+ */
+@Service
+public class ExportService {
+
+    /** Number of rows fetched from the database per round trip */
+    public static final int FETCH_SIZE = 500;
+
+    /** Number of rows after which written entities are detached from the persistence context */
+    public static final int CLEAR_INTERVAL = 500;
+
+    /**
+     * The formats an export can be written in.
+     */
+    public enum ExportFormat {
+        CSV("text/csv", "csv"),
+        NDJSON("application/x-ndjson", "ndjson");
+
+        private final String contentType;
+        private final String extension;
+
+        ExportFormat(String contentType, String extension) {
+            this.contentType = contentType;
+            this.extension = extension;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+    }
+
+    /**
+     * A column of an export: its name and the way its value is read from an entity.
+     * @param <T> - the exported entity
+     */
+    private static class Column<T> {
+        private final String name;
+        private final Function<T, Object> value;
+
+        Column(String name, Function<T, Object> value) {
+            this.name = name;
+            this.value = value;
+        }
+    }
+
+    private static final List<Column<Student>> STUDENT_COLUMNS = Arrays.asList(
+            new Column<>("idNumber", Student::getIdNumber),
+            new Column<>("firstName", Student::getFirstName),
+            new Column<>("lastName", Student::getLastName),
+            new Column<>("linkName", Student::getLinkName),
+            new Column<>("email", Student::getEmail),
+            new Column<>("gender", Student::getGender),
+            new Column<>("dob", Student::getDob),
+            new Column<>("nationality", Student::getNationality),
+            new Column<>("program", Student::getProgram),
+            new Column<>("cohort", Student::getCohort),
+            new Column<>("houseCohort", Student::getHouseCohort),
+            new Column<>("experience", Student::getExperience),
+            new Column<>("doGroup", Student::getDoGroup),
+            new Column<>("status", Student::getStatus),
+            new Column<>("house", student -> houseName(student.getHouse())),
+            new Column<>("dateAssignedToHouse", Student::getDateAssignedToHouse));
+
+    private static final List<Column<User>> USER_COLUMNS = Arrays.asList(
+            new Column<>("idNumber", User::getIdNumber),
+            new Column<>("firstName", User::getFirstName),
+            new Column<>("lastName", User::getLastName),
+            new Column<>("email", User::getEmail),
+            new Column<>("house", user -> houseName(user.getHouse())),
+            new Column<>("dateAssignedToHouse", User::getDateAssignedToHouse));
+
+    private static final List<Column<HousesCupPoints>> HOUSES_CUP_COLUMNS = Arrays.asList(
+            new Column<>("date", HousesCupPoints::getDate),
+            new Column<>("academicYear", HousesCupPoints::getAcademicYear),
+            new Column<>("house", points -> houseName(points.getHouse())),
+            new Column<>("points", HousesCupPoints::getPoints),
+            new Column<>("student", points -> points.getStudent() == null ? null : points.getStudent().getIdNumber()),
+            new Column<>("studentName", points -> fullName(points.getStudent())),
+            new Column<>("assigningUser", points -> fullName(points.getAssigningUser())),
+            new Column<>("explanation", HousesCupPoints::getExplanation));
+
+    private static final List<Column<HouseChangeRequest>> CHANGE_REQUEST_COLUMNS = Arrays.asList(
+            new Column<>("id", HouseChangeRequest::getId),
+            new Column<>("student", request -> request.getStudent().getIdNumber()),
+            new Column<>("studentName", request -> fullName(request.getStudent())),
+            new Column<>("oldHouse", request -> houseName(request.getOldHouse())),
+            new Column<>("targetHouse", request -> houseName(request.getTargetHouse())),
+            new Column<>("status", HouseChangeRequest::getStatus),
+            new Column<>("requestDate", HouseChangeRequest::getRequestDate),
+            new Column<>("decidedDate", HouseChangeRequest::getDecidedDate),
+            new Column<>("explanation", HouseChangeRequest::getExplanation),
+            new Column<>("denialExplanation", HouseChangeRequest::getDenialExplanation));
+
+    @PersistenceContext
+    EntityManager entityManager;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    private final TransactionTemplate transactionTemplate;
+
+    @Autowired
+    public ExportService(PlatformTransactionManager transactionManager) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+    }
+
+    public StreamingResponseBody exportStudents(StudentFilters filters, ExportFormat format) {
+        return export(Student.class, FilterSpecifications.forStudents(filters), "idNumber",
+                Arrays.asList("house"), STUDENT_COLUMNS, format);
+    }
+
+    public StreamingResponseBody exportUsers(UserFilters filters, ExportFormat format) {
+        return export(User.class, FilterSpecifications.forUsers(filters), "idNumber",
+                Arrays.asList("house"), USER_COLUMNS, format);
+    }
+
+    public StreamingResponseBody exportHousesCupPoints(HousesCupPointsFilters filters, ExportFormat format) {
+        return export(HousesCupPoints.class, FilterSpecifications.forHousesCupPoints(filters), "date",
+                Arrays.asList("house", "student", "assigningUser"), HOUSES_CUP_COLUMNS, format);
+    }
+
+    public StreamingResponseBody exportHouseChangeRequests(HouseChangeRequestFilters filters, ExportFormat format) {
+        return export(HouseChangeRequest.class, FilterSpecifications.forHouseChangeRequests(filters), "id",
+                Arrays.asList("student", "oldHouse", "targetHouse"), CHANGE_REQUEST_COLUMNS, format);
+    }
+
+    /**
+     * Creates a response body that streams the entities matching a specification when the response is written.
+     * @param type - the exported entity
+     * @param specification - the filters to apply
+     * @param orderBy - the attribute to order the rows on
+     * @param fetches - the single-valued associations read by the columns, fetched in the same query
+     * @param columns - the columns to write
+     * @param format - the format to write
+     * @return the response body
+     */
+    private <T> StreamingResponseBody export(Class<T> type, Specification<T> specification, String orderBy,
+                                             List<String> fetches, List<Column<T>> columns, ExportFormat format) {
+        return out -> {
+            try {
+                transactionTemplate.executeWithoutResult(status -> {
+                    try (Stream<T> rows = stream(type, specification, orderBy, fetches)) {
+                        if (format == ExportFormat.CSV) {
+                            writeCsv(rows, columns, out);
+                        } else {
+                            writeNdjson(rows, columns, out);
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        };
+    }
+
+    private <T> Stream<T> stream(Class<T> type, Specification<T> specification, String orderBy, List<String> fetches) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<T> query = cb.createQuery(type);
+        Root<T> root = query.from(type);
+        for (String fetch : fetches) {
+            root.fetch(fetch, JoinType.LEFT);
+        }
+        query.select(root).where(specification.toPredicate(root, query, cb)).orderBy(cb.asc(root.get(orderBy)));
+        return entityManager.createQuery(query)
+                .setHint(QueryHints.HINT_FETCH_SIZE, FETCH_SIZE)
+                .setHint(QueryHints.HINT_READONLY, true)
+                .getResultStream();
+    }
+
+    private <T> void writeCsv(Stream<T> rows, List<Column<T>> columns, OutputStream out) throws IOException {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        CSVPrinter printer = new CSVPrinter(writer, CSVFormat.DEFAULT);
+        for (Column<T> column : columns) {
+            printer.print(column.name);
+        }
+        printer.println();
+        int written = 0;
+        for (T row : (Iterable<T>) rows::iterator) {
+            for (Column<T> column : columns) {
+                Object value = column.value.apply(row);
+                printer.print(value instanceof Date ? dateFormat.format((Date) value) : value);
+            }
+            printer.println();
+            written = afterRow(written, writer);
+        }
+        printer.flush();
+    }
+
+    private <T> void writeNdjson(Stream<T> rows, List<Column<T>> columns, OutputStream out) throws IOException {
+        JsonGenerator generator = objectMapper.getFactory().createGenerator(out);
+        generator.setRootValueSeparator(null);
+        int written = 0;
+        for (T row : (Iterable<T>) rows::iterator) {
+            generator.writeStartObject();
+            for (Column<T> column : columns) {
+                generator.writeObjectField(column.name, column.value.apply(row));
+            }
+            generator.writeEndObject();
+            generator.writeRaw('\n');
+            written = afterRow(written, generator);
+        }
+        generator.flush();
+    }
+
+    /**
+     * Sends the rows written so far to the client and detaches them from the persistence context once every
+     * {@link #CLEAR_INTERVAL} rows.
+     */
+    private int afterRow(int written, Flushable output) throws IOException {
+        if (++written == CLEAR_INTERVAL) {
+            output.flush();
+            entityManager.clear();
+            return 0;
+        }
+        return written;
+    }
+
+    private static String houseName(House house) {
+        return house == null ? null : house.getName();
+    }
+
+    private static String fullName(User user) {
+        return user == null ? null : user.getFirstName() + " " + user.getLastName();
+    }
+}
@@ -0,0 +1,246 @@
+package com.maat.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.maat.helper.FilterSpecifications;
+import com.maat.model.*;
+import org.hibernate.jpa.QueryHints;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Tuple;
+import javax.persistence.criteria.*;
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Service counting the rows per value of every filterable attribute under the current filter selection, as shown
+ * next to the filter options of the Maat webapp. The counts of a facet ignore the selection made on that facet
+ * itself, so that they tell how many rows each option would add. All facets of a table are computed with a single
+ * query and a single pass over its results, and results are cached until the tables they are read from change.
+ */
+@Service
+public class FacetService {
+
+    /** Number of filter selections whose counts are kept */
+    public static final int CACHE_SIZE = 256;
+
+    /** Number of rows fetched from the database per round trip */
+    public static final int FETCH_SIZE = 1000;
+
+    /**
+     * A filterable attribute: how to select it from the queried entity and which values the filters select.
+     * @param <T> - the queried entity
+     */
+    private static class Facet<T> {
+        private final String name;
+        private final Function<Root<T>, Expression<?>> attribute;
+        private final List<?> selection;
+
+        Facet(String name, Function<Root<T>, Expression<?>> attribute, List<?> selection) {
+            this.name = name;
+            this.attribute = attribute;
+            this.selection = selection;
+        }
+    }
+
+    @PersistenceContext
+    EntityManager entityManager;
+
+    @Autowired
+    TableVersions tableVersions;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    private final Map<String, Map<String, Map<String, Long>>> cache = Collections.synchronizedMap(
+            new LinkedHashMap<String, Map<String, Map<String, Long>>>(CACHE_SIZE, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Map<String, Map<String, Long>>> eldest) {
+                    return size() > CACHE_SIZE;
+                }
+            });
+
+    /**
+     * Counts the students per value of every student filter.
+     * @param filters - the current {@link com.maat.model.StudentFilters StudentFilters} selection
+     * @return the number of students per value, per filter
+     */
+    @Transactional(readOnly = true)
+    public Map<String, Map<String, Long>> getStudentFacets(StudentFilters filters) {
+        StudentFilters selection = filters == null ? StudentFilters.builder().build() : filters;
+        StudentFilters base = StudentFilters.builder()
+                .startDate(selection.getStartDate())
+                .endDate(selection.getEndDate())
+                .searchString(selection.getSearchString())
+                .build();
+        List<Facet<Student>> facets = Arrays.asList(
+                new Facet<>("gender", root -> root.get("gender"), selection.getGender()),
+                new Facet<>("program", root -> root.get("program"), selection.getProgram()),
+                new Facet<>("house", root -> root.join("house", JoinType.LEFT).get("name"), selection.getHouse()),
+                new Facet<>("year", root -> root.get("cohort"), selection.getYear()),
+                new Facet<>("experience", root -> root.get("experience"), selection.getExperience()),
+                new Facet<>("doGroup", root -> root.get("doGroup"), selection.getDoGroup()),
+                new Facet<>("status", root -> root.get("status"), selection.getStatus()));
+        return cached("students:" + tableVersions.get("students"), selection,
+                () -> count(Student.class, FilterSpecifications.forStudents(base), "idNumber", facets));
+    }
+
+    /**
+     * Counts the users per value of every user filter. A user with several roles is counted once for each role.
+     * @param filters - the current {@link com.maat.model.UserFilters UserFilters} selection
+     * @return the number of users per value, per filter
+     */
+    @Transactional(readOnly = true)
+    public Map<String, Map<String, Long>> getUserFacets(UserFilters filters) {
+        UserFilters selection = filters == null ? UserFilters.builder().build() : filters;
+        UserFilters base = UserFilters.builder()
+                .roles(Collections.emptyList())
+                .startDate(selection.getStartDate())
+                .endDate(selection.getEndDate())
+                .searchString(selection.getSearchString())
+                .build();
+        List<Facet<User>> facets = Arrays.asList(
+                new Facet<>("house", root -> root.join("house", JoinType.LEFT).get("name"), selection.getHouse()),
+                new Facet<>("roles", root -> root.join("roles", JoinType.LEFT).get("role"), selection.getRoles()));
+        return cached("users:" + tableVersions.get("users") + ":" + tableVersions.get("students"), selection,
+                () -> count(User.class, FilterSpecifications.forUsers(base), "idNumber", facets));
+    }
+
+    /**
+     * Counts the Houses Cup entries per value of every Houses Cup filter.
+     * @param filters - the current {@link com.maat.model.HousesCupPointsFilters HousesCupPointsFilters} selection
+     * @return the number of entries per value, per filter
+     */
+    @Transactional(readOnly = true)
+    public Map<String, Map<String, Long>> getHousesCupPointsFacets(HousesCupPointsFilters filters) {
+        HousesCupPointsFilters selection = filters == null ? HousesCupPointsFilters.builder().build() : filters;
+        HousesCupPointsFilters base = HousesCupPointsFilters.builder()
+                .startPoints(selection.getStartPoints())
+                .endPoints(selection.getEndPoints())
+                .startDate(selection.getStartDate())
+                .endDate(selection.getEndDate())
+                .searchString(selection.getSearchString())
+                .fullText(selection.getFullText())
+                .build();
+        List<Facet<HousesCupPoints>> facets = Arrays.asList(
+                new Facet<>("house", root -> root.join("house", JoinType.LEFT).get("name"), selection.getHouse()),
+                new Facet<>("academicYear", root -> root.get("academicYear"), selection.getAcademicYear()));
+        return cached("houses_cup:" + tableVersions.get("houses_cup"), selection,
+                () -> count(HousesCupPoints.class, FilterSpecifications.forHousesCupPoints(base), "id", facets));
+    }
+
+    private Map<String, Map<String, Long>> cached(String version, Object filters,
+                                                 Supplier<Map<String, Map<String, Long>>> counter) {
+        String key;
+        try {
+            key = version + ":" + objectMapper.writeValueAsString(filters);
+        } catch (JsonProcessingException e) {
+            return counter.get();
+        }
+        Map<String, Map<String, Long>> counts = cache.get(key);
+        if (counts == null) {
+            counts = counter.get();
+            cache.put(key, counts);
+        }
+        return counts;
+    }
+
+    /**
+     * Counts the values of every facet in one pass over the rows matching the filters that are not facets. A row is
+     * counted for a facet if it matches the selection of all other facets. Rows spanning several results, because a
+     * facet is a collection, follow each other as the results are ordered on the identifier.
+     * @param type - the queried entity
+     * @param base - the filters that are not facets
+     * @param id - the identifier attribute of the entity
+     * @param facets - the facets to count
+     * @return the number of rows per value, per facet
+     */
+    private <T> Map<String, Map<String, Long>> count(Class<T> type, Specification<T> base, String id,
+                                                    List<Facet<T>> facets) {
+        int facetCount = facets.size();
+        List<Set<Object>> selections = new ArrayList<>(facetCount);
+        List<Map<Object, long[]>> counts = new ArrayList<>(facetCount);
+        for (Facet<T> facet : facets) {
+            selections.add(facet.selection == null || facet.selection.isEmpty() ? null : new HashSet<>(facet.selection));
+            counts.add(new HashMap<>());
+        }
+
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Tuple> query = cb.createTupleQuery();
+        Root<T> root = query.from(type);
+        List<Selection<?>> selected = new ArrayList<>(facetCount + 1);
+        selected.add(root.get(id));
+        for (Facet<T> facet : facets) {
+            selected.add(facet.attribute.apply(root));
+        }
+        query.multiselect(selected).where(base.toPredicate(root, query, cb)).orderBy(cb.asc(root.get(id)));
+
+        List<Set<Object>> row = new ArrayList<>(facetCount);
+        for (int i = 0; i < facetCount; i++) {
+            row.add(new HashSet<>(2));
+        }
+        Object rowId = null;
+        try (Stream<Tuple> results = entityManager.createQuery(query)
+                .setHint(QueryHints.HINT_FETCH_SIZE, FETCH_SIZE)
+                .setHint(QueryHints.HINT_READONLY, true)
+                .getResultStream()) {
+            for (Tuple result : (Iterable<Tuple>) results::iterator) {
+                Object resultId = result.get(0);
+                if (rowId != null && !rowId.equals(resultId)) {
+                    countRow(row, selections, counts);
+                }
+                rowId = resultId;
+                for (int i = 0; i < facetCount; i++) {
+                    row.get(i).add(result.get(i + 1));
+                }
+            }
+        }
+        if (rowId != null) {
+            countRow(row, selections, counts);
+        }
+
+        Map<String, Map<String, Long>> facetCounts = new LinkedHashMap<>();
+        for (int i = 0; i < facetCount; i++) {
+            Map<String, Long> values = new TreeMap<>();
+            for (Map.Entry<Object, long[]> value : counts.get(i).entrySet()) {
+                values.put(value.getKey().toString(), value.getValue()[0]);
+            }
+            facetCounts.put(facets.get(i).name, values);
+        }
+        return facetCounts;
+    }
+
+    /**
+     * Adds the values of a single row to the counts of the facets it is counted for, and clears the row.
+     */
+    private void countRow(List<Set<Object>> row, List<Set<Object>> selections, List<Map<Object, long[]>> counts) {
+        int mismatched = -1;
+        for (int i = 0; i < row.size() && mismatched != -2; i++) {
+            Set<Object> selection = selections.get(i);
+            if (selection != null && Collections.disjoint(selection, row.get(i))) {
+                mismatched = mismatched == -1 ? i : -2;
+            }
+        }
+        if (mismatched != -2) {
+            for (int i = 0; i < row.size(); i++) {
+                if (mismatched == -1 || mismatched == i) {
+                    for (Object value : row.get(i)) {
+                        if (value != null) {
+                            counts.get(i).computeIfAbsent(value, key -> new long[1])[0]++;
+                        }
+                    }
+                }
+            }
+        }
+        for (Set<Object> values : row) {
+            values.clear();
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.maat.service;
+
+import com.maat.listener.EntityChange;
+import com.maat.listener.EntityChangeObserver;
+import org.springframework.stereotype.Service;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.sql.Timestamp;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory index of the distinct values of the filterable columns of each table, used to fill the filter options
+ * of the Maat webapp. Every value is kept with the number of rows holding it, so that the index can follow inserts,
+ * updates and deletes without rereading the table. A table is only scanned when it is first requested, after a bulk
+ * write announced through {@link #invalidate(String)} or on an explicit {@link #rebuild(String)}.
+ */
+@Service
+public class FilterablesIndex implements EntityChangeObserver {
+
+    /** Columns that are never offered as filter options, per table */
+    private static final Map<String, Set<String>> EXCLUDED_COLUMNS = Map.of(
+            "students", Set.of("id_number", "first_name", "last_name", "email", "date_assigned_to_house", "link_name"),
+            "users", Set.of("id_number", "first_name", "last_name", "email"),
+            "houses", Set.of("population", "housekeeper"),
+            "house_change_requests", Set.of("student", "explanation", "denial_explanation", "id", "request_date",
+                    "decided_date", "search_vector", "idempotency_key"),
+            "houses_cup", Set.of("id", "explanation", "date", "points", "student", "assigning_user",
+                    "search_vector"));
+
+    private static final DateTimeFormatter ISO_DATE_TIME = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
+
+    private static final Comparator<String> VALUE_ORDER = Comparator.nullsLast(Comparator.naturalOrder());
+
+    @PersistenceContext
+    EntityManager entityManager;
+
+    private final Map<String, Map<String, TreeMap<String, int[]>>> tables = new ConcurrentHashMap<>();
+
+    private final Map<String, AtomicLong> changeCounts = new ConcurrentHashMap<>();
+
+    public Set<String> getTables() {
+        return EXCLUDED_COLUMNS.keySet();
+    }
+
+    /**
+     * Retrieves the distinct values of every filterable column of a table, in the shape of the former native
+     * query: a list of pairs of column name and sorted values.
+     * @param table - the name of the table
+     * @return the filterables of the table
+     */
+    public List<Object> getFilterables(String table) {
+        Map<String, TreeMap<String, int[]>> index = tables.get(table);
+        if (index == null) {
+            index = rebuild(table);
+        }
+        synchronized (index) {
+            List<Object> filterables = new ArrayList<>(index.size());
+            for (Map.Entry<String, TreeMap<String, int[]>> column : new TreeMap<>(index).entrySet()) {
+                filterables.add(new Object[]{column.getKey(), column.getValue().keySet().toArray(new String[0])});
+            }
+            return filterables;
+        }
+    }
+
+    /**
+     * Reads the distinct values of a table from the database and replaces its index. If the table changes while it
+     * is being read, the result is returned but not kept, and the next request reads the table again.
+     * @param table - the name of the table
+     * @return the new index of the table
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, TreeMap<String, int[]>> rebuild(String table) {
+        Set<String> excluded = EXCLUDED_COLUMNS.get(table);
+        if (excluded == null) {
+            throw new IllegalArgumentException("Table " + table + " has no filterables");
+        }
+        long changesBefore = changeCount(table).get();
+        List<Object[]> rows = entityManager.createNativeQuery("SELECT key, value, count(*)\n" +
+                        "FROM " + table + ", jsonb_each_text(to_jsonb(" + table + "))\n" +
+                        "WHERE key NOT IN (:excluded)\n" +
+                        "GROUP BY key, value")
+                .setParameter("excluded", excluded)
+                .getResultList();
+        Map<String, TreeMap<String, int[]>> index = new HashMap<>();
+        for (Object[] row : rows) {
+            index.computeIfAbsent((String) row[0], column -> new TreeMap<>(VALUE_ORDER))
+                    .put((String) row[1], new int[]{((Number) row[2]).intValue()});
+        }
+        if (changeCount(table).get() == changesBefore) {
+            tables.put(table, index);
+        } else {
+            tables.remove(table);
+        }
+        return index;
+    }
+
+    /**
+     * Drops the index of a table after rows were written without JPA, so that it is read again when next requested.
+     * @param table - the name of the table
+     */
+    public void invalidate(String table) {
+        changeCount(table).incrementAndGet();
+        tables.remove(table);
+    }
+
+    @Override
+    public void onChange(EntityChange change) {
+        Set<String> excluded = EXCLUDED_COLUMNS.get(change.getTable());
+        if (excluded == null) {
+            return;
+        }
+        changeCount(change.getTable()).incrementAndGet();
+        Map<String, TreeMap<String, int[]>> index = tables.get(change.getTable());
+        if (index == null) {
+            return;
+        }
+        if (change.getKind() == EntityChange.Kind.UPDATE && change.getOldValues() == null) {
+            tables.remove(change.getTable());
+            return;
+        }
+        synchronized (index) {
+            if (change.getOldValues() != null) {
+                apply(index, change.getOldValues(), excluded, -1);
+            }
+            if (change.getNewValues() != null) {
+                apply(index, change.getNewValues(), excluded, 1);
+            }
+        }
+    }
+
+    private void apply(Map<String, TreeMap<String, int[]>> index, Map<String, Object> values, Set<String> excluded,
+                       int delta) {
+        for (Map.Entry<String, Object> column : values.entrySet()) {
+            if (excluded.contains(column.getKey())) {
+                continue;
+            }
+            TreeMap<String, int[]> counts = index.computeIfAbsent(column.getKey(), key -> new TreeMap<>(VALUE_ORDER));
+            String value = toText(column.getValue());
+            int[] count = counts.computeIfAbsent(value, key -> new int[1]);
+            count[0] += delta;
+            if (count[0] <= 0) {
+                counts.remove(value);
+            }
+        }
+    }
+
+    private AtomicLong changeCount(String table) {
+        return changeCounts.computeIfAbsent(table, key -> new AtomicLong());
+    }
+
+    /**
+     * Renders a column value the way jsonb_each_text does, so that values written through JPA end up under the same
+     * key as the values read from the database.
+     */
+    private static String toText(Object value) {
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof Date) {
+            return ISO_DATE_TIME.format(new Timestamp(((Date) value).getTime()).toLocalDateTime());
+        }
+        if (value instanceof Enum) {
+            return ((Enum<?>) value).name();
+        }
+        return value.toString();
+    }
+}
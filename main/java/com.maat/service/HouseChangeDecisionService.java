@@ -0,0 +1,194 @@
+package com.maat.service;
+
+import com.maat.model.House;
+import com.maat.model.HouseChangeDecision;
+import com.maat.model.HouseChangeRequest;
+import com.maat.model.Student;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.*;
+
+/**
+ * Service deciding many house change requests in one transaction, such as all requests of a request window.
+ * The requests and their students are locked, then read with their houses in a few queries, approved students are
+ * moved to their target house, and the population of every house is adjusted once by the net number of students
+ * moving in, with an update relative to the stored population so that concurrent changes are not lost.
+ */
+@Service
+public class HouseChangeDecisionService {
+
+    /** Largest number of decisions accepted in one request */
+    public static final int MAX_DECISIONS = 10_000;
+
+    /** Status of a request that has not been decided */
+    public static final String UNDECIDED = "UNDECIDED";
+
+    /** Number of values bound to one IN clause */
+    private static final int IN_CHUNK = 1000;
+
+    @PersistenceContext
+    EntityManager entityManager;
+
+    @Autowired
+    TableVersions tableVersions;
+
+    /**
+     * Validates and applies a list of decisions. A request can only be decided once, and only be approved while the
+     * student is still in the house the request was made from.
+     * @param decisions - the decisions
+     * @param allOrNothing - whether to apply nothing if any decision is invalid
+     * @return one result per decision, in the order of the decisions, holding the id of the request, the status
+     * "decided", "invalid" or "skipped", an error message for invalid decisions and the decided request
+     */
+    @Transactional
+    public List<Map<String, Object>> decideAll(List<HouseChangeDecision> decisions, boolean allOrNothing) {
+        if (decisions.size() > MAX_DECISIONS) {
+            throw new IllegalArgumentException("At most " + MAX_DECISIONS + " requests can be decided at once");
+        }
+        Map<Long, HouseChangeRequest> requests = load(decisions);
+        Set<Long> decided = new HashSet<>();
+        Set<Integer> movedStudents = new HashSet<>();
+        List<Map<String, Object>> results = new ArrayList<>(decisions.size());
+        List<HouseChangeDecision> valid = new ArrayList<>(decisions.size());
+        for (HouseChangeDecision decision : decisions) {
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("id", decision.getId());
+            try {
+                validate(decision, requests.get(decision.getId()), decided, movedStudents);
+                valid.add(decision);
+                result.put("status", "decided");
+            } catch (IllegalArgumentException e) {
+                result.put("status", "invalid");
+                result.put("message", e.getMessage());
+            }
+            results.add(result);
+        }
+        if (allOrNothing && valid.size() < decisions.size()) {
+            for (Map<String, Object> result : results) {
+                result.computeIfPresent("status", (key, status) -> "decided".equals(status) ? "skipped" : status);
+            }
+            return results;
+        }
+
+        Date now = new Date();
+        Map<String, int[]> populationChanges = new TreeMap<>();
+        Iterator<Map<String, Object>> resultIterator = results.iterator();
+        for (HouseChangeDecision decision : decisions) {
+            Map<String, Object> result = resultIterator.next();
+            if (!"decided".equals(result.get("status"))) {
+                continue;
+            }
+            HouseChangeRequest request = requests.get(decision.getId());
+            request.setStatus(decision.getStatus());
+            request.setDecidedDate(now);
+            request.setDenialExplanation(HouseChangeDecision.DENIED.equals(decision.getStatus())
+                    ? decision.getDenialExplanation() : null);
+            if (HouseChangeDecision.APPROVED.equals(decision.getStatus())) {
+                Student student = request.getStudent();
+                if (student.getHouse() != null) {
+                    populationChanges.computeIfAbsent(student.getHouse().getName(), key -> new int[1])[0]--;
+                }
+                populationChanges.computeIfAbsent(request.getTargetHouse().getName(), key -> new int[1])[0]++;
+                student.setHouse(request.getTargetHouse());
+                student.setDateAssignedToHouse(now);
+                student.evaluateStatus();
+            }
+            result.put("request", request.createSimpleVersion(request.getStudent()));
+        }
+        boolean populationChanged = false;
+        for (Map.Entry<String, int[]> change : populationChanges.entrySet()) {
+            if (change.getValue()[0] != 0) {
+                entityManager.createNativeQuery("UPDATE houses SET population = coalesce(population, 0) + :change\n" +
+                                "WHERE name = :name")
+                        .setParameter("change", change.getValue()[0])
+                        .setParameter("name", change.getKey())
+                        .executeUpdate();
+                populationChanged = true;
+            }
+        }
+        if (populationChanged) {
+            tableVersions.bump("houses");
+        }
+        return results;
+    }
+
+    /**
+     * Checks that a decision can be applied, given the decisions before it in the same list.
+     */
+    private void validate(HouseChangeDecision decision, HouseChangeRequest request, Set<Long> decided,
+                          Set<Integer> movedStudents) {
+        if (request == null) {
+            throw new IllegalArgumentException("Request " + decision.getId() + " does not exist");
+        }
+        if (!decided.add(decision.getId())) {
+            throw new IllegalArgumentException("Request " + decision.getId() + " is decided twice");
+        }
+        if (!HouseChangeDecision.APPROVED.equals(decision.getStatus())
+                && !HouseChangeDecision.DENIED.equals(decision.getStatus())) {
+            throw new IllegalArgumentException("Status " + decision.getStatus() + " is not a decision");
+        }
+        if (!UNDECIDED.equals(request.getStatus())) {
+            throw new IllegalArgumentException("Request " + decision.getId() + " is already " + request.getStatus());
+        }
+        if (HouseChangeDecision.DENIED.equals(decision.getStatus())) {
+            return;
+        }
+        Student student = request.getStudent();
+        if (request.getTargetHouse() == null) {
+            throw new IllegalArgumentException("Request " + decision.getId() + " has no target house");
+        }
+        if (!sameHouse(student.getHouse(), request.getOldHouse())) {
+            throw new IllegalArgumentException("Student " + student.getIdNumber() + " is no longer in house "
+                    + (request.getOldHouse() == null ? null : request.getOldHouse().getName()));
+        }
+        if (!movedStudents.add(student.getIdNumber())) {
+            throw new IllegalArgumentException("Student " + student.getIdNumber() + " is moved twice");
+        }
+    }
+
+    private boolean sameHouse(House a, House b) {
+        return a == null ? b == null : b != null && a.getName().equals(b.getName());
+    }
+
+    /**
+     * Locks the decided requests and their students until the end of the transaction, then reads the requests with
+     * their students and houses, a chunk of ids per query. The rows are locked in the order of the request ids, so
+     * that concurrent batches wait for each other instead of deadlocking, and are read after they are locked, so
+     * that a request decided by another batch meanwhile is seen as decided.
+     */
+    private Map<Long, HouseChangeRequest> load(List<HouseChangeDecision> decisions) {
+        SortedSet<Long> sortedIds = new TreeSet<>();
+        for (HouseChangeDecision decision : decisions) {
+            sortedIds.add(decision.getId());
+        }
+        List<Long> ids = new ArrayList<>(sortedIds);
+        for (int from = 0; from < ids.size(); from += IN_CHUNK) {
+            entityManager.createNativeQuery("SELECT r.id FROM house_change_requests r\n" +
+                            "JOIN students s ON s.id_number = r.student\n" +
+                            "WHERE r.id IN :ids\n" +
+                            "ORDER BY r.id\n" +
+                            "FOR UPDATE OF r, s")
+                    .setParameter("ids", ids.subList(from, Math.min(from + IN_CHUNK, ids.size())))
+                    .getResultList();
+        }
+        Map<Long, HouseChangeRequest> requests = new HashMap<>();
+        for (int from = 0; from < ids.size(); from += IN_CHUNK) {
+            List<Long> chunk = ids.subList(from, Math.min(from + IN_CHUNK, ids.size()));
+            for (HouseChangeRequest request : entityManager.createQuery("SELECT r FROM HouseChangeRequest r\n" +
+                            "JOIN FETCH r.student s\n" +
+                            "LEFT JOIN FETCH s.house\n" +
+                            "LEFT JOIN FETCH r.oldHouse\n" +
+                            "LEFT JOIN FETCH r.targetHouse\n" +
+                            "WHERE r.id IN :ids", HouseChangeRequest.class)
+                    .setParameter("ids", chunk)
+                    .getResultList()) {
+                requests.put(request.getId(), request);
+            }
+        }
+        return requests;
+    }
+}
@@ -0,0 +1,198 @@
+package com.maat.service;
+
+import com.maat.helper.MinCostCirculation;
+import com.maat.model.House;
+import com.maat.model.HouseCapacity;
+import com.maat.model.HouseChangeDecision;
+import com.maat.model.HouseChangeRequest;
+import com.maat.model.Student;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.*;
+
+/**
+ * Service proposing which undecided house change requests to approve once the request window closes, so that as
+ * many students as possible move while every house stays within bounds on its population. Approvals interact: a
+ * swap or a chain of moves leaves populations unchanged, while a single move takes a student out of one house and
+ * into another. The requests are therefore modelled as a minimum-cost circulation over the houses, in which every
+ * approval is a unit of flow from the old to the target house earning one, and a hub node lets each house take in or
+ * give out as many more students than it loses or gains as its bounds allow. Swaps and chains are cycles of the
+ * circulation, and any flow of least cost is a largest set of approvals that keeps every house within bounds.
+ * Nothing is changed: the proposal is applied through {@link HouseChangeDecisionService#decideAll(List, boolean)
+ * decideAll}.
+ */
+@Service
+public class HouseChangeResolutionService {
+
+    @PersistenceContext
+    EntityManager entityManager;
+
+    /**
+     * Proposes a largest set of undecided requests to approve within bounds on the populations of the houses. A house
+     * already outside its bounds is kept from moving further outside them. Of several requests of a student, only the
+     * latest is considered, and of several requests between the same two houses, the earliest are approved first.
+     * @param capacities - the bounds on the population of houses, houses without bounds being unbounded
+     * @return map holding the decisions to approve under "decisions", the id and reason of every undecided request left
+     * out under "unapproved", and the current and projected population and bounds of every house under "houses"
+     */
+    @Transactional(readOnly = true)
+    public Map<String, Object> propose(List<HouseCapacity> capacities) {
+        List<House> houses = entityManager.createQuery("SELECT h FROM House h ORDER BY h.name", House.class)
+                .getResultList();
+        Map<String, Integer> nodes = new HashMap<>();
+        for (House house : houses) {
+            nodes.put(house.getName(), nodes.size());
+        }
+        Map<String, HouseCapacity> bounds = bounds(capacities, nodes);
+        int none = houses.size();
+        int hub = none + 1;
+
+        List<Map<String, Object>> unapproved = new ArrayList<>();
+        Map<Long, List<HouseChangeRequest>> candidates = candidates(unapproved, nodes, none);
+
+        MinCostCirculation circulation = new MinCostCirculation(hub + 1);
+        Map<Long, Integer> arcs = new HashMap<>();
+        for (Map.Entry<Long, List<HouseChangeRequest>> pair : candidates.entrySet()) {
+            int from = (int) (pair.getKey() >> 32);
+            int to = (int) (long) pair.getKey();
+            arcs.put(pair.getKey(), circulation.addArc(from, to, pair.getValue().size(), -1));
+        }
+        for (House house : houses) {
+            int node = nodes.get(house.getName());
+            int population = population(house);
+            HouseCapacity capacity = bounds.get(house.getName());
+            Integer min = capacity == null ? null : capacity.getMin();
+            Integer max = capacity == null ? null : capacity.getMax();
+            circulation.addArc(node, hub, max == null ? MinCostCirculation.UNBOUNDED : Math.max(max - population, 0), 0);
+            circulation.addArc(hub, node, min == null ? MinCostCirculation.UNBOUNDED : Math.max(population - min, 0), 0);
+        }
+        circulation.addArc(none, hub, MinCostCirculation.UNBOUNDED, 0);
+        circulation.addArc(hub, none, MinCostCirculation.UNBOUNDED, 0);
+        circulation.solve();
+
+        List<HouseChangeDecision> decisions = new ArrayList<>();
+        int[] changes = new int[hub];
+        for (Map.Entry<Long, List<HouseChangeRequest>> pair : candidates.entrySet()) {
+            long flow = circulation.getFlow(arcs.get(pair.getKey()));
+            changes[(int) (pair.getKey() >> 32)] -= flow;
+            changes[(int) (long) pair.getKey()] += flow;
+            List<HouseChangeRequest> requests = pair.getValue();
+            requests.sort(Comparator.comparing(HouseChangeRequest::getRequestDate,
+                    Comparator.nullsLast(Comparator.naturalOrder())).thenComparingLong(HouseChangeRequest::getId));
+            for (int i = 0; i < requests.size(); i++) {
+                if (i < flow) {
+                    decisions.add(new HouseChangeDecision(requests.get(i).getId(), HouseChangeDecision.APPROVED, null));
+                } else {
+                    unapproved.add(unapproved(requests.get(i), "capacity"));
+                }
+            }
+        }
+        decisions.sort(Comparator.comparingLong(HouseChangeDecision::getId));
+        unapproved.sort(Comparator.comparingLong(entry -> (Long) entry.get("id")));
+
+        List<Map<String, Object>> projections = new ArrayList<>();
+        for (House house : houses) {
+            HouseCapacity capacity = bounds.get(house.getName());
+            Map<String, Object> projection = new LinkedHashMap<>();
+            projection.put("house", house.getName());
+            projection.put("population", population(house));
+            projection.put("projectedPopulation", population(house) + changes[nodes.get(house.getName())]);
+            projection.put("min", capacity == null ? null : capacity.getMin());
+            projection.put("max", capacity == null ? null : capacity.getMax());
+            projections.add(projection);
+        }
+        Map<String, Object> proposal = new LinkedHashMap<>();
+        proposal.put("decisions", decisions);
+        proposal.put("unapproved", unapproved);
+        proposal.put("houses", projections);
+        return proposal;
+    }
+
+    /**
+     * Checks the bounds and indexes them by house.
+     */
+    private Map<String, HouseCapacity> bounds(List<HouseCapacity> capacities, Map<String, Integer> nodes) {
+        Map<String, HouseCapacity> bounds = new HashMap<>();
+        for (HouseCapacity capacity : capacities == null ? Collections.<HouseCapacity>emptyList() : capacities) {
+            if (!nodes.containsKey(capacity.getHouse())) {
+                throw new IllegalArgumentException("House " + capacity.getHouse() + " does not exist");
+            }
+            if ((capacity.getMin() != null && capacity.getMin() < 0)
+                    || (capacity.getMax() != null && capacity.getMax() < 0)) {
+                throw new IllegalArgumentException("Bounds of house " + capacity.getHouse() + " must not be negative");
+            }
+            if (capacity.getMin() != null && capacity.getMax() != null && capacity.getMin() > capacity.getMax()) {
+                throw new IllegalArgumentException("Lower bound of house " + capacity.getHouse()
+                        + " is above its upper bound");
+            }
+            if (bounds.put(capacity.getHouse(), capacity) != null) {
+                throw new IllegalArgumentException("House " + capacity.getHouse() + " is bounded twice");
+            }
+        }
+        return bounds;
+    }
+
+    /**
+     * Reads the undecided requests and groups those that can be approved by their old and target house, the node of
+     * the old house in the upper and the node of the target house in the lower half of the key. Requests that cannot
+     * be approved are added to the unapproved requests.
+     */
+    private Map<Long, List<HouseChangeRequest>> candidates(List<Map<String, Object>> unapproved,
+                                                           Map<String, Integer> nodes, int none) {
+        List<HouseChangeRequest> requests = entityManager.createQuery("SELECT r FROM HouseChangeRequest r\n" +
+                        "JOIN FETCH r.student s\n" +
+                        "LEFT JOIN FETCH s.house\n" +
+                        "LEFT JOIN FETCH r.oldHouse\n" +
+                        "LEFT JOIN FETCH r.targetHouse\n" +
+                        "WHERE r.status = :status", HouseChangeRequest.class)
+                .setParameter("status", HouseChangeDecisionService.UNDECIDED)
+                .getResultList();
+        Map<Integer, HouseChangeRequest> latest = new HashMap<>();
+        for (HouseChangeRequest request : requests) {
+            latest.merge(request.getStudent().getIdNumber(), request, (a, b) -> later(a, b) ? a : b);
+        }
+        Map<Long, List<HouseChangeRequest>> candidates = new HashMap<>();
+        for (HouseChangeRequest request : requests) {
+            Student student = request.getStudent();
+            if (latest.get(student.getIdNumber()) != request) {
+                unapproved.add(unapproved(request, "superseded"));
+            } else if (request.getTargetHouse() == null) {
+                unapproved.add(unapproved(request, "no target house"));
+            } else if (!sameHouse(student.getHouse(), request.getOldHouse())) {
+                unapproved.add(unapproved(request, "student no longer in old house"));
+            } else if (sameHouse(student.getHouse(), request.getTargetHouse())) {
+                unapproved.add(unapproved(request, "student already in target house"));
+            } else {
+                long from = request.getOldHouse() == null ? none : nodes.get(request.getOldHouse().getName());
+                long to = nodes.get(request.getTargetHouse().getName());
+                candidates.computeIfAbsent(from << 32 | to, key -> new ArrayList<>()).add(request);
+            }
+        }
+        return candidates;
+    }
+
+    private boolean later(HouseChangeRequest a, HouseChangeRequest b) {
+        if (a.getRequestDate() != null && b.getRequestDate() != null && !a.getRequestDate().equals(b.getRequestDate())) {
+            return a.getRequestDate().after(b.getRequestDate());
+        }
+        return a.getId() > b.getId();
+    }
+
+    private Map<String, Object> unapproved(HouseChangeRequest request, String reason) {
+        Map<String, Object> entry = new LinkedHashMap<>();
+        entry.put("id", request.getId());
+        entry.put("reason", reason);
+        return entry;
+    }
+
+    private int population(House house) {
+        return house.getPopulation() == null ? 0 : house.getPopulation();
+    }
+
+    private boolean sameHouse(House a, House b) {
+        return a == null ? b == null : b != null && a.getName().equals(b.getName());
+    }
+}
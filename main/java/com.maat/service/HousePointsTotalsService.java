@@ -0,0 +1,149 @@
+package com.maat.service;
+
+import com.maat.repository.HousePointsTotalRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Isolation;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Service reading the Houses Cup leaderboard from the pre-aggregated house_points_totals table, which is kept up to
+ * date by {@link com.maat.listener.HousePointsTotalsListener HousePointsTotalsListener} along with the totals per
+ * student in student_points_totals. The totals are compared with the entries they are summed from every night, and
+ * summed again if they differ.
+ */
+@Service
+public class HousePointsTotalsService {
+
+    @PersistenceContext
+    EntityManager entityManager;
+
+    @Autowired
+    HousePointsTotalRepository totalRepository;
+
+    @Autowired
+    TableVersions tableVersions;
+
+    /**
+     * Retrieves the points per house of an academic year, reading one row per house.
+     * @param year - the academic year
+     * @return a list of pairs of house and points
+     */
+    @Transactional(readOnly = true)
+    public List<Object> getPointsByHouse(int year) {
+        return totalRepository.getPointsByHouse(year);
+    }
+
+    /**
+     * Retrieves the points per house and per student of each house of an academic year, read in one snapshot so that
+     * the two agree.
+     * @param year - the academic year
+     * @return map holding the pairs of house and points under "houses", and per house a map of student id number to
+     * points under "students"
+     */
+    @Transactional(readOnly = true, isolation = Isolation.REPEATABLE_READ)
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> getStandings(int year) {
+        Map<String, Object> students = new TreeMap<>();
+        for (Object[] row : (List<Object[]>) entityManager.createNativeQuery("SELECT house, student, points\n" +
+                        "FROM student_points_totals\n" +
+                        "WHERE academic_year = :year AND entries > 0\n" +
+                        "ORDER BY house, student")
+                .setParameter("year", year)
+                .getResultList()) {
+            ((Map<String, Object>) students.computeIfAbsent((String) row[0], key -> new LinkedHashMap<>()))
+                    .put(row[1].toString(), ((Number) row[2]).longValue());
+        }
+        Map<String, Object> standings = new LinkedHashMap<>();
+        standings.put("houses", totalRepository.getPointsByHouse(year));
+        standings.put("students", students);
+        return standings;
+    }
+
+    /**
+     * Compares the totals with the entries of the houses_cup table while writes to the entries are held back, and
+     * optionally sums all totals again if any of them differ.
+     * @param repair - whether to rebuild the totals when they differ
+     * @return the house totals that differed, each with its academic year, house, stored and summed points and stored
+     * and counted entries, followed by the number of student totals that differed if any
+     */
+    @Transactional
+    public List<Map<String, Object>> verify(boolean repair) {
+        entityManager.createNativeQuery("LOCK TABLE houses_cup IN SHARE MODE").executeUpdate();
+        List<Map<String, Object>> mismatches = new ArrayList<>();
+        for (Object[] row : totalRepository.findMismatches()) {
+            Map<String, Object> mismatch = new LinkedHashMap<>();
+            mismatch.put("academicYear", row[0]);
+            mismatch.put("house", row[1]);
+            mismatch.put("storedPoints", row[2]);
+            mismatch.put("points", row[3]);
+            mismatch.put("storedEntries", row[4]);
+            mismatch.put("entries", row[5]);
+            mismatches.add(mismatch);
+        }
+        Number studentMismatches = (Number) entityManager.createNativeQuery("SELECT count(*)\n" +
+                "FROM student_points_totals t\n" +
+                "FULL JOIN (SELECT academic_year, house, student, sum(points) AS points, count(*) AS entries\n" +
+                "    FROM houses_cup WHERE house IS NOT NULL AND student IS NOT NULL\n" +
+                "    GROUP BY academic_year, house, student) s\n" +
+                "ON s.academic_year = t.academic_year AND s.house = t.house AND s.student = t.student\n" +
+                "WHERE coalesce(t.points, 0) <> coalesce(s.points, 0)\n" +
+                "OR coalesce(t.entries, 0) <> coalesce(s.entries, 0)").getSingleResult();
+        if (studentMismatches.longValue() > 0) {
+            Map<String, Object> mismatch = new LinkedHashMap<>();
+            mismatch.put("studentTotals", studentMismatches.longValue());
+            mismatches.add(mismatch);
+        }
+        if (repair && !mismatches.isEmpty()) {
+            sumAll();
+        }
+        return mismatches;
+    }
+
+    /**
+     * Sums all totals again from the entries of the houses_cup table, holding back writes to the entries meanwhile.
+     */
+    @Transactional
+    public void rebuild() {
+        entityManager.createNativeQuery("LOCK TABLE houses_cup IN SHARE MODE").executeUpdate();
+        sumAll();
+    }
+
+    /**
+     * Nightly check of the totals, repairing them if they drifted from the entries.
+     */
+    @Scheduled(cron = "${maat.points-totals.verify-cron:0 30 4 * * *}")
+    @Transactional
+    public void verifyNightly() {
+        List<Map<String, Object>> mismatches = verify(true);
+        if (!mismatches.isEmpty()) {
+            System.out.println("\u001B[33mERROR: house points totals differed from the entries and were rebuilt: "
+                    + mismatches + "\u001B[37m");
+        }
+    }
+
+    private void sumAll() {
+        entityManager.createNativeQuery("DELETE FROM house_points_totals").executeUpdate();
+        entityManager.createNativeQuery("INSERT INTO house_points_totals (academic_year, house, points, entries)\n" +
+                "SELECT academic_year, house, sum(points), count(*) FROM houses_cup\n" +
+                "WHERE house IS NOT NULL\n" +
+                "GROUP BY academic_year, house").executeUpdate();
+        entityManager.createNativeQuery("DELETE FROM student_points_totals").executeUpdate();
+        entityManager.createNativeQuery("INSERT INTO student_points_totals (academic_year, house, student, points, " +
+                "entries)\n" +
+                "SELECT academic_year, house, student, sum(points), count(*) FROM houses_cup\n" +
+                "WHERE house IS NOT NULL AND student IS NOT NULL\n" +
+                "GROUP BY academic_year, house, student").executeUpdate();
+        tableVersions.bump("house_points_totals");
+        tableVersions.bump("student_points_totals");
+    }
+}
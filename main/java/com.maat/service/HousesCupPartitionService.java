@@ -0,0 +1,191 @@
+package com.maat.service;
+
+import com.maat.helper.RecordConverter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.*;
+
+/**
+ * Service managing the partitions of the houses_cup table, one per academic year. The partitions of the current and
+ * next academic year are created ahead of time, so that entries of the current year are read from and written to a
+ * partition of their own; entries of any other year without a partition are moved out of the default partition
+ * every night. Closed years can be archived: their partition is detached, moved to the houses_cup_archive schema,
+ * and optionally to a tablespace on cheaper storage, protected against writes and attached again, so that the same
+ * endpoints keep reading it.
+ */
+@Service
+public class HousesCupPartitionService {
+
+    /** Schema holding the partitions of archived academic years */
+    public static final String ARCHIVE_SCHEMA = "houses_cup_archive";
+
+    @PersistenceContext
+    EntityManager entityManager;
+
+    @Value("${maat.houses-cup.archive-tablespace:}")
+    String archiveTablespace;
+
+    @Autowired
+    TableVersions tableVersions;
+
+    /**
+     * Lists the partitions of the houses_cup table.
+     * @return the name, academic year, estimated number of entries, size in bytes and whether it is archived of every
+     * partition, the default partition last
+     */
+    @Transactional(readOnly = true)
+    @SuppressWarnings("unchecked")
+    public List<Map<String, Object>> getPartitions() {
+        List<Map<String, Object>> partitions = new ArrayList<>();
+        for (Object[] row : (List<Object[]>) entityManager.createNativeQuery("SELECT c.relname, n.nspname,\n" +
+                "greatest(c.reltuples, 0), pg_total_relation_size(c.oid), c.relpartbound IS NOT NULL\n" +
+                "    AND pg_get_expr(c.relpartbound, c.oid) = 'DEFAULT'\n" +
+                "FROM pg_inherits i\n" +
+                "JOIN pg_class c ON c.oid = i.inhrelid\n" +
+                "JOIN pg_namespace n ON n.oid = c.relnamespace\n" +
+                "WHERE i.inhparent = 'houses_cup'::regclass\n" +
+                "ORDER BY 5, c.relname").getResultList()) {
+            Map<String, Object> partition = new LinkedHashMap<>();
+            partition.put("name", row[0]);
+            partition.put("academicYear", (Boolean) row[4] ? null
+                    : Integer.valueOf(((String) row[0]).substring("houses_cup_".length())));
+            partition.put("estimatedEntries", ((Number) row[2]).longValue());
+            partition.put("bytes", ((Number) row[3]).longValue());
+            partition.put("archived", ARCHIVE_SCHEMA.equals(row[1]));
+            partitions.add(partition);
+        }
+        return partitions;
+    }
+
+    /**
+     * Creates the partitions of the current and next academic year once the application has started.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional
+    public void createUpcomingPartitions() {
+        int year = currentAcademicYear();
+        ensurePartition(year);
+        ensurePartition(year + 1);
+    }
+
+    /**
+     * Creates the partitions of the current and next academic year every night, along with the partitions of the
+     * academic years that entries were written for in the default partition.
+     */
+    @Scheduled(cron = "${maat.houses-cup.partition-cron:0 0 4 * * *}")
+    @Transactional
+    public void createPartitionsNightly() {
+        createUpcomingPartitions();
+        List<?> years = entityManager.createNativeQuery("SELECT DISTINCT academic_year FROM houses_cup_default\n" +
+                "WHERE academic_year IS NOT NULL").getResultList();
+        for (Object year : years) {
+            ensurePartition(((Number) year).intValue());
+        }
+    }
+
+    /**
+     * Gives an academic year its own partition, moving its entries out of the default partition.
+     * @param year - the academic year
+     * @return whether a partition was created
+     */
+    @Transactional
+    public boolean ensurePartition(int year) {
+        return (Boolean) entityManager.createNativeQuery("SELECT houses_cup_ensure_partition(:year)")
+                .setParameter("year", year)
+                .getSingleResult();
+    }
+
+    /**
+     * Archives the partition of a closed academic year, after which its entries can be read but not changed.
+     * @param year - the academic year, before the current one
+     */
+    @Transactional
+    public void archive(int year) {
+        if (year >= currentAcademicYear()) {
+            throw new IllegalArgumentException("Academic year " + year + " is not closed yet");
+        }
+        ensurePartition(year);
+        String partition = partitionName(year);
+        if (isArchived(partition)) {
+            throw new IllegalArgumentException("Academic year " + year + " is already archived");
+        }
+        execute("ALTER TABLE houses_cup DETACH PARTITION " + partition);
+        execute("ALTER TABLE " + partition + " SET SCHEMA " + ARCHIVE_SCHEMA);
+        String archived = ARCHIVE_SCHEMA + "." + partition;
+        if (!archiveTablespace.isEmpty()) {
+            moveToTablespace(archived, archiveTablespace);
+        }
+        execute("CREATE TRIGGER houses_cup_archived BEFORE INSERT OR UPDATE OR DELETE ON " + archived + "\n" +
+                "FOR EACH ROW EXECUTE FUNCTION houses_cup_reject_write()");
+        execute("ALTER TABLE houses_cup ATTACH PARTITION " + archived + " FOR VALUES IN (" + year + ")");
+        tableVersions.bump("houses_cup");
+    }
+
+    /**
+     * Moves the partition of an archived academic year back, after which its entries can be changed again.
+     * @param year - the academic year
+     */
+    @Transactional
+    public void restore(int year) {
+        String partition = partitionName(year);
+        if (!isArchived(partition)) {
+            throw new IllegalArgumentException("Academic year " + year + " is not archived");
+        }
+        String archived = ARCHIVE_SCHEMA + "." + partition;
+        execute("ALTER TABLE houses_cup DETACH PARTITION " + archived);
+        execute("DROP TRIGGER houses_cup_archived ON " + archived);
+        if (!archiveTablespace.isEmpty()) {
+            moveToTablespace(archived, "pg_default");
+        }
+        execute("ALTER TABLE " + archived + " SET SCHEMA " + currentSchema());
+        execute("ALTER TABLE houses_cup ATTACH PARTITION " + partition + " FOR VALUES IN (" + year + ")");
+        tableVersions.bump("houses_cup");
+    }
+
+    private void moveToTablespace(String table, String tablespace) {
+        execute("ALTER TABLE " + table + " SET TABLESPACE " + tablespace);
+        List<?> indexes = entityManager.createNativeQuery("SELECT quote_ident(schemaname) || '.' || " +
+                        "quote_ident(indexname)\n" +
+                        "FROM pg_indexes WHERE schemaname || '.' || tablename = :table")
+                .setParameter("table", table)
+                .getResultList();
+        for (Object index : indexes) {
+            execute("ALTER INDEX " + index + " SET TABLESPACE " + tablespace);
+        }
+    }
+
+    private boolean isArchived(String partition) {
+        return entityManager.createNativeQuery("SELECT to_regclass(:name) IS NOT NULL")
+                .setParameter("name", ARCHIVE_SCHEMA + "." + partition)
+                .getSingleResult()
+                .equals(Boolean.TRUE);
+    }
+
+    private String currentSchema() {
+        return (String) entityManager.createNativeQuery("SELECT quote_ident(current_schema())").getSingleResult();
+    }
+
+    private void execute(String sql) {
+        entityManager.createNativeQuery(sql).executeUpdate();
+    }
+
+    private String partitionName(int year) {
+        return "houses_cup_" + year;
+    }
+
+    private int currentAcademicYear() {
+        try {
+            return RecordConverter.getAcademicYear(new Date());
+        } catch (Exception e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+}
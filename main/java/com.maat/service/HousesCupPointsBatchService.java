@@ -0,0 +1,190 @@
+package com.maat.service;
+
+import com.maat.helper.RecordConverter;
+import com.maat.model.*;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Service awarding Houses Cup points to many students in one request, such as everyone who took part in an event.
+ * All awards are validated up front, the students, users and houses they refer to are read with one query each,
+ * and the valid awards are inserted in one transaction with batched statements. The house totals and the leaderboard
+ * stream are therefore updated once for the whole batch.
+ */
+@Service
+public class HousesCupPointsBatchService {
+
+    /** Largest number of awards accepted in one request */
+    public static final int MAX_AWARDS = 20_000;
+
+    /** Number of awards inserted between two flushes of the persistence context */
+    public static final int FLUSH_SIZE = 500;
+
+    /** Number of values bound to one IN clause */
+    private static final int IN_CHUNK = 1000;
+
+    @PersistenceContext
+    EntityManager entityManager;
+
+    /**
+     * Validates and inserts a batch of awards. Awards given through the template all get its date.
+     * @param batch - the awards
+     * @param allOrNothing - whether to insert nothing if any award is invalid
+     * @return one result per award, in the order of the awards followed by the students of the template, holding
+     * the status "created", "invalid" or "skipped", an error message for invalid awards and the created entry
+     */
+    @Transactional
+    public List<Map<String, Object>> awardAll(HousesCupPointsBatch batch, boolean allOrNothing) {
+        List<HousesCupPoints> awards = expand(batch);
+        if (awards.size() > MAX_AWARDS) {
+            throw new IllegalArgumentException("At most " + MAX_AWARDS + " awards can be given at once");
+        }
+        Map<Integer, Student> students = load(Student.class, "idNumber", ids(awards, HousesCupPoints::getStudent));
+        Map<Integer, User> users = load(User.class, "idNumber", ids(awards, HousesCupPoints::getAssigningUser));
+        Set<String> houseNames = new HashSet<>();
+        for (HousesCupPoints award : awards) {
+            if (award.getHouse() != null) {
+                houseNames.add(award.getHouse().getName());
+            }
+        }
+        Map<String, House> houses = load(House.class, "name", houseNames);
+
+        List<Map<String, Object>> results = new ArrayList<>(awards.size());
+        List<HousesCupPoints> valid = new ArrayList<>(awards.size());
+        for (int i = 0; i < awards.size(); i++) {
+            HousesCupPoints award = awards.get(i);
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("index", i);
+            try {
+                resolve(award, students, users, houses);
+                award.validateHousesCupPointsData();
+                valid.add(award);
+                result.put("status", "created");
+            } catch (Exception e) {
+                result.put("status", "invalid");
+                result.put("message", e.getMessage());
+            }
+            results.add(result);
+        }
+        if (allOrNothing && valid.size() < awards.size()) {
+            for (Map<String, Object> result : results) {
+                result.computeIfPresent("status", (key, status) -> "created".equals(status) ? "skipped" : status);
+            }
+            return results;
+        }
+
+        int written = 0;
+        for (Map<String, Object> result : results) {
+            if (!"created".equals(result.get("status"))) {
+                continue;
+            }
+            HousesCupPoints award = awards.get((Integer) result.get("index"));
+            entityManager.persist(award);
+            result.put("entry", award.createSimpleCopy());
+            if (++written % FLUSH_SIZE == 0) {
+                entityManager.flush();
+                entityManager.clear();
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Lists the awards of a batch, giving a copy of the template to every listed student.
+     */
+    private List<HousesCupPoints> expand(HousesCupPointsBatch batch) {
+        List<HousesCupPoints> awards = new ArrayList<>();
+        if (batch.getAwards() != null) {
+            awards.addAll(batch.getAwards());
+        }
+        HousesCupPoints template = batch.getTemplate();
+        if (template != null && batch.getStudentIds() != null) {
+            if (template.getDate() == null) {
+                throw new IllegalArgumentException("The template must have a date");
+            }
+            int academicYear = academicYear(template.getDate());
+            for (Integer studentId : batch.getStudentIds()) {
+                HousesCupPoints award = new HousesCupPoints();
+                award.copy(template);
+                award.setStudent(new Student(studentId));
+                award.setDate(template.getDate(), academicYear);
+                awards.add(award);
+            }
+        }
+        return awards;
+    }
+
+    private int academicYear(Date date) {
+        try {
+            return RecordConverter.getAcademicYear(date);
+        } catch (Exception e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Replaces the references of an award by the entities they refer to. Awards without a house go to the house of
+     * their student.
+     */
+    private void resolve(HousesCupPoints award, Map<Integer, Student> students, Map<Integer, User> users,
+                         Map<String, House> houses) {
+        if (award.getStudent() == null || !students.containsKey(award.getStudent().getIdNumber())) {
+            throw new IllegalArgumentException("Student " + (award.getStudent() == null ? null
+                    : award.getStudent().getIdNumber()) + " does not exist");
+        }
+        award.setStudent(students.get(award.getStudent().getIdNumber()));
+        if (award.getAssigningUser() == null || !users.containsKey(award.getAssigningUser().getIdNumber())) {
+            throw new IllegalArgumentException("Assigning user " + (award.getAssigningUser() == null ? null
+                    : award.getAssigningUser().getIdNumber()) + " does not exist");
+        }
+        award.setAssigningUser(users.get(award.getAssigningUser().getIdNumber()));
+        if (award.getHouse() == null) {
+            award.setHouse(award.getStudent().getHouse());
+            if (award.getHouse() == null) {
+                throw new IllegalArgumentException("Student " + award.getStudent().getIdNumber() + " has no house");
+            }
+        } else if (houses.containsKey(award.getHouse().getName())) {
+            award.setHouse(houses.get(award.getHouse().getName()));
+        } else {
+            throw new IllegalArgumentException("House " + award.getHouse().getName() + " does not exist");
+        }
+        if (award.getDate() == null) {
+            throw new IllegalArgumentException("Award has no date");
+        }
+    }
+
+    private Set<Integer> ids(List<HousesCupPoints> awards, Function<HousesCupPoints, User> reference) {
+        Set<Integer> ids = new HashSet<>();
+        for (HousesCupPoints award : awards) {
+            User user = reference.apply(award);
+            if (user != null && user.getIdNumber() != null) {
+                ids.add(user.getIdNumber());
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Reads the entities with the given identifiers, a chunk of identifiers per query.
+     */
+    private <K, T> Map<K, T> load(Class<T> type, String id, Collection<K> keys) {
+        Map<K, T> entities = new HashMap<>();
+        List<K> remaining = new ArrayList<>(keys);
+        for (int from = 0; from < remaining.size(); from += IN_CHUNK) {
+            List<K> chunk = remaining.subList(from, Math.min(from + IN_CHUNK, remaining.size()));
+            List<T> found = entityManager.createQuery("SELECT e FROM " + type.getSimpleName() + " e WHERE e."
+                    + id + " IN :keys", type).setParameter("keys", chunk).getResultList();
+            for (T entity : found) {
+                @SuppressWarnings("unchecked")
+                K key = (K) entityManager.getEntityManagerFactory().getPersistenceUnitUtil().getIdentifier(entity);
+                entities.put(key, entity);
+            }
+        }
+        return entities;
+    }
+}
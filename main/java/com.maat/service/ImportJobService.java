@@ -0,0 +1,153 @@
+package com.maat.service;
+
+import com.maat.model.ImportJob;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Service running roster imports on a small bounded pool of background threads, so that a long import does not
+ * hold on to an http request thread. Uploads are spooled to a temporary file before the request returns.
+ */
+@Service
+public class ImportJobService {
+
+    /** Number of imports running at the same time */
+    public static final int WORKERS = 2;
+
+    /** Number of imports that may wait for a worker before new uploads are refused */
+    public static final int QUEUE_CAPACITY = 8;
+
+    /** Number of finished jobs kept for reporting */
+    public static final int FINISHED_JOBS_KEPT = 50;
+
+    @Autowired
+    StudentImportService importService;
+
+    private final Map<String, ImportJob> jobs = new ConcurrentHashMap<>();
+
+    private final ExecutorService executor = new ThreadPoolExecutor(WORKERS, WORKERS, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(QUEUE_CAPACITY), runnable -> {
+                Thread thread = new Thread(runnable, "csv-import");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    /**
+     * Spools the uploaded data to a temporary file and queues it for import.
+     * @param in - the raw CSV data
+     * @param fileName - the name of the uploaded file, for reporting only
+     * @param mode - the way the rows are written to the database
+     * @return the queued job
+     * @throws IOException - if the upload cannot be spooled
+     * @throws RejectedExecutionException - if too many imports are already waiting
+     */
+    public ImportJob submit(InputStream in, String fileName, StudentImportService.WriteMode mode) throws IOException {
+        Path file = Files.createTempFile("maat-import-", ".csv");
+        ImportJob job = new ImportJob(UUID.randomUUID().toString(), fileName);
+        try {
+            Files.copy(in, file, StandardCopyOption.REPLACE_EXISTING);
+            jobs.put(job.getId(), job);
+            try {
+                executor.execute(() -> run(job, file, mode));
+            } catch (RejectedExecutionException e) {
+                jobs.remove(job.getId());
+                throw e;
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+        pruneFinishedJobs();
+        return job;
+    }
+
+    private void run(ImportJob job, Path file, StudentImportService.WriteMode mode) {
+        try (InputStream in = Files.newInputStream(file)) {
+            if (job.getProgress().isCancelRequested()) {
+                throw new CancellationException("Import cancelled before it started");
+            }
+            job.setStarted(new Date());
+            job.setState(ImportJob.State.RUNNING);
+            importService.importStream(in, job.getProgress(), mode);
+            finish(job, ImportJob.State.COMPLETED);
+        } catch (CancellationException e) {
+            job.setMessage(e.getMessage());
+            finish(job, ImportJob.State.CANCELLED);
+        } catch (Exception e) {
+            job.setMessage(e.getMessage());
+            finish(job, ImportJob.State.FAILED);
+            System.out.println("\u001B[33mERROR: " + e + "\u001B[37m");
+        } finally {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                System.out.println("Could not delete " + file + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Marks a job as done, setting its finish time first so that a job is never seen done without one.
+     */
+    private void finish(ImportJob job, ImportJob.State state) {
+        job.setFinished(new Date());
+        job.setState(state);
+    }
+
+    public ImportJob getJob(String id) {
+        return jobs.get(id);
+    }
+
+    /**
+     * Retrieves all known jobs, most recent first.
+     * @return the list of jobs
+     */
+    public List<ImportJob> getJobs() {
+        List<ImportJob> result = new ArrayList<>(jobs.values());
+        result.sort(Comparator.comparing(ImportJob::getCreated).reversed());
+        return result;
+    }
+
+    /**
+     * Requests cancellation of a job. A running import stops at the next row, a queued one never starts.
+     * @param id - the id of the job
+     * @return the job, or null if it is unknown
+     */
+    public ImportJob cancel(String id) {
+        ImportJob job = jobs.get(id);
+        if (job != null && !job.isDone()) {
+            job.getProgress().cancel();
+        }
+        return job;
+    }
+
+    private void pruneFinishedJobs() {
+        List<ImportJob> finished = new ArrayList<>();
+        for (ImportJob job : jobs.values()) {
+            if (job.isDone()) {
+                finished.add(job);
+            }
+        }
+        if (finished.size() > FINISHED_JOBS_KEPT) {
+            finished.sort(Comparator.comparing(ImportJob::getFinished,
+                    Comparator.nullsLast(Comparator.naturalOrder())));
+            for (ImportJob job : finished.subList(0, finished.size() - FINISHED_JOBS_KEPT)) {
+                jobs.remove(job.getId());
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,262 @@
+package com.maat.service;
+
+import com.maat.listener.EntityChange;
+import com.maat.listener.EntityChangeObserver;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pushes changes of the Houses Cup leaderboard to subscribed screens as Server-Sent Events, instead of having every
+ * screen poll the points per house and per student. A subscriber first receives a "snapshot" event with the current
+ * points per house and per student of its academic year, followed by "delta" events with the points added per house
+ * and per student since the previous event. Committed changes are collected for a short window and sent as one event
+ * per academic year, so a burst of awards costs one message per subscriber. Subscribers are held as asynchronous
+ * responses and do not occupy a request thread while they wait.
+ * Every event carries the number of changes counted up to it as its version. A subscriber is registered before its
+ * snapshot is read, the changes collected until then are sent first, and deltas are only sent to it once they are
+ * newer than its snapshot, so that no change is missed between the two.
+ */
+@Service
+public class LeaderboardStream implements EntityChangeObserver {
+
+    /** Time during which changes are collected into one event */
+    public static final long WINDOW_MILLIS = 500;
+
+    /** Time between comments sent to idle subscribers, to detect screens that went away */
+    public static final long HEARTBEAT_MILLIS = 15_000;
+
+    /** Time after which a subscription is closed, upon which the browser subscribes again with a fresh snapshot */
+    public static final long SUBSCRIPTION_MILLIS = 30 * 60_000;
+
+    /** Number of times a snapshot is read again when changes were counted while it was read */
+    public static final int SNAPSHOT_ATTEMPTS = 3;
+
+    /**
+     * A subscribed screen and the academic year it shows.
+     */
+    private static class Subscriber {
+        private final SseEmitter emitter;
+        private final int academicYear;
+        /** Version of the snapshot sent, or -1 while the snapshot is being read */
+        private long version = -1;
+        /** Deltas held back while the snapshot is being read */
+        private final List<Map<String, Object>> backlog = new ArrayList<>();
+
+        Subscriber(SseEmitter emitter, int academicYear) {
+            this.emitter = emitter;
+            this.academicYear = academicYear;
+        }
+    }
+
+    /**
+     * Points added per house and per student of a house within one academic year.
+     */
+    private static class Delta {
+        private final Map<String, long[]> houses = new TreeMap<>();
+        private final Map<String, Map<Object, long[]>> students = new TreeMap<>();
+        private long version;
+
+        void add(String house, Object student, long points) {
+            houses.computeIfAbsent(house, key -> new long[1])[0] += points;
+            if (student != null) {
+                students.computeIfAbsent(house, key -> new HashMap<>())
+                        .computeIfAbsent(student, key -> new long[1])[0] += points;
+            }
+        }
+
+        Map<String, Object> toMap(int academicYear) {
+            Map<String, Object> housePoints = new LinkedHashMap<>();
+            houses.forEach((house, points) -> housePoints.put(house, points[0]));
+            Map<String, Object> studentPoints = new LinkedHashMap<>();
+            students.forEach((house, perStudent) -> {
+                Map<String, Object> points = new LinkedHashMap<>();
+                perStudent.forEach((student, studentDelta) -> points.put(student.toString(), studentDelta[0]));
+                studentPoints.put(house, points);
+            });
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("academicYear", academicYear);
+            map.put("version", version);
+            map.put("houses", housePoints);
+            map.put("students", studentPoints);
+            return map;
+        }
+    }
+
+    @Autowired
+    HousePointsTotalsService pointsTotalsService;
+
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+
+    private final Map<Integer, Delta> pending = new HashMap<>();
+
+    private boolean flushScheduled;
+
+    /** Number of changes collected, guarded by the pending changes */
+    private long version;
+
+    /** Keeps deltas and snapshots from being sent out of order */
+    private final Object sendLock = new Object();
+
+    private ScheduledExecutorService executor;
+
+    @PostConstruct
+    public void start() {
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "leaderboard-stream");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::heartbeat, HEARTBEAT_MILLIS, HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+        for (Subscriber subscriber : subscribers) {
+            subscriber.emitter.complete();
+        }
+    }
+
+    /**
+     * Subscribes a screen to the changes of the leaderboard of an academic year.
+     * @param academicYear - the academic year shown
+     * @return the emitter to return from the controller, which has already been sent the current points per house
+     * and per student
+     * @throws IOException - if the snapshot could not be sent
+     */
+    public SseEmitter subscribe(int academicYear) throws IOException {
+        SseEmitter emitter = new SseEmitter(SUBSCRIPTION_MILLIS);
+        Subscriber subscriber = new Subscriber(emitter, academicYear);
+        emitter.onCompletion(() -> subscribers.remove(subscriber));
+        emitter.onTimeout(() -> subscribers.remove(subscriber));
+        emitter.onError(e -> subscribers.remove(subscriber));
+        subscribers.add(subscriber);
+        try {
+            long snapshotVersion;
+            Map<String, Object> standings;
+            int attempts = 0;
+            do {
+                snapshotVersion = flush();
+                standings = pointsTotalsService.getStandings(academicYear);
+            } while (snapshotVersion != currentVersion() && ++attempts < SNAPSHOT_ATTEMPTS);
+            Map<String, Object> snapshot = new LinkedHashMap<>();
+            snapshot.put("academicYear", academicYear);
+            snapshot.put("version", snapshotVersion);
+            snapshot.putAll(standings);
+            synchronized (sendLock) {
+                emitter.send(SseEmitter.event().name("snapshot").data(snapshot, MediaType.APPLICATION_JSON));
+                subscriber.version = snapshotVersion;
+                for (Map<String, Object> delta : subscriber.backlog) {
+                    if ((Long) delta.get("version") > snapshotVersion) {
+                        send(subscriber, SseEmitter.event().name("delta").data(delta, MediaType.APPLICATION_JSON));
+                    }
+                }
+                subscriber.backlog.clear();
+            }
+        } catch (IOException | RuntimeException e) {
+            subscribers.remove(subscriber);
+            throw e;
+        }
+        return emitter;
+    }
+
+    @Override
+    public void onChange(EntityChange change) {
+        if (!"houses_cup".equals(change.getTable()) || subscribers.isEmpty()) {
+            return;
+        }
+        synchronized (pending) {
+            version++;
+            if (change.getOldValues() != null) {
+                collect(change.getOldValues(), -1);
+            }
+            if (change.getNewValues() != null) {
+                collect(change.getNewValues(), 1);
+            }
+            if (!flushScheduled) {
+                flushScheduled = true;
+                executor.schedule(this::flushWindow, WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private void collect(Map<String, Object> values, int sign) {
+        Object house = values.get("house");
+        Object academicYear = values.get("academic_year");
+        Object points = values.get("points");
+        if (house == null || academicYear == null || points == null) {
+            return;
+        }
+        Delta delta = pending.computeIfAbsent(((Number) academicYear).intValue(), key -> new Delta());
+        delta.add(house.toString(), values.get("student"), sign * ((Number) points).longValue());
+        delta.version = version;
+    }
+
+    private long currentVersion() {
+        synchronized (pending) {
+            return version;
+        }
+    }
+
+    private void flushWindow() {
+        flush();
+    }
+
+    /**
+     * Sends the changes collected since the last flush to the subscribers of each academic year, holding them back for
+     * subscribers whose snapshot is still being read.
+     * @return the version of the last change sent
+     */
+    private long flush() {
+        synchronized (sendLock) {
+            Map<Integer, Delta> deltas;
+            long flushed;
+            synchronized (pending) {
+                deltas = new HashMap<>(pending);
+                pending.clear();
+                flushScheduled = false;
+                flushed = version;
+            }
+            for (Map.Entry<Integer, Delta> delta : deltas.entrySet()) {
+                Map<String, Object> event = delta.getValue().toMap(delta.getKey());
+                for (Subscriber subscriber : subscribers) {
+                    if (subscriber.academicYear != delta.getKey()) {
+                        continue;
+                    }
+                    if (subscriber.version < 0) {
+                        subscriber.backlog.add(event);
+                    } else {
+                        send(subscriber, SseEmitter.event().name("delta").data(event, MediaType.APPLICATION_JSON));
+                    }
+                }
+            }
+            return flushed;
+        }
+    }
+
+    private void heartbeat() {
+        for (Subscriber subscriber : subscribers) {
+            send(subscriber, SseEmitter.event().comment("heartbeat"));
+        }
+    }
+
+    private void send(Subscriber subscriber, SseEmitter.SseEventBuilder event) {
+        try {
+            subscriber.emitter.send(event);
+        } catch (IOException | IllegalStateException e) {
+            subscribers.remove(subscriber);
+            subscriber.emitter.completeWithError(e);
+        }
+    }
+}
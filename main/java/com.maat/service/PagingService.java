@@ -0,0 +1,366 @@
+package com.maat.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.maat.helper.FilterSpecifications;
+import com.maat.model.*;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.springframework.beans.BeanWrapperImpl;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.criteria.*;
+import javax.persistence.metamodel.SingularAttribute;
+import java.io.IOException;
+import java.util.*;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Service reading lists a page at a time without counting the matching rows, returning a slice that only tells
+ * whether more rows follow. Pages are either read at an offset, or by seeking past the last row of the previous page
+ * so that every page costs the same as the first. In the latter case the position in a list is handed to the client
+ * as an opaque cursor holding the sort attribute, the direction and the sort value and identifier of the last row.
+ * Rows without a sort value come after all other rows in both directions. The rows with a sort value are read first,
+ * seeking past the cursor with a row-value comparison on the sort value and identifier so that an index on the two
+ * serves every page; the rows without one are read after them in the order of their identifier.
+ * A total can be added to a slice on request, either estimated from the planner statistics of the table or counted.
+ */
+@Service
+public class PagingService {
+
+    /** Largest number of rows returned in one page */
+    public static final int MAX_PAGE_SIZE = 1000;
+
+    /** Sort attribute ordering the rows that match a full text filter from the best to the worst match */
+    public static final String RELEVANCE = "relevance";
+
+    /**
+     * The ways the total number of matching rows can be included in a slice.
+     */
+    public enum TotalMode {
+        /** No total is given */
+        NONE,
+        /** The number of rows in the table according to the planner statistics, only for unfiltered lists */
+        ESTIMATE,
+        /** The rows are counted */
+        EXACT
+    }
+
+    /**
+     * Position in a list, as encoded in a cursor.
+     */
+    private static class Cursor {
+        public String sortOn;
+        public boolean asc;
+        public Object value;
+        public Object id;
+    }
+
+    /**
+     * The requested page of a list.
+     */
+    private static class PageRequest {
+        private final String cursor;
+        private final int pageNum;
+        private final int pageSize;
+        private final String sortOn;
+        private final boolean asc;
+        private final TotalMode total;
+        private final String fullText;
+
+        PageRequest(String cursor, int pageNum, int pageSize, String sortOn, boolean asc, TotalMode total,
+                    String fullText) {
+            this.cursor = cursor;
+            this.pageNum = pageNum;
+            this.pageSize = pageSize;
+            this.sortOn = sortOn;
+            this.asc = asc;
+            this.total = total;
+            this.fullText = fullText;
+        }
+    }
+
+    @PersistenceContext
+    EntityManager entityManager;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    @Transactional(readOnly = true)
+    public Map<String, Object> getStudents(StudentFilters filters, String cursor, int pageNum, int pageSize,
+                                           String sortOn, boolean asc, TotalMode total) {
+        return slice(Student.class, filters == null, FilterSpecifications.forStudents(filters),
+                Collections.singletonList("house"),
+                new PageRequest(cursor, pageNum, pageSize, sortOn, asc, total, null), Student::createStudentSimpleCopy);
+    }
+
+    @Transactional(readOnly = true)
+    public Map<String, Object> getUsers(UserFilters filters, String cursor, int pageNum, int pageSize,
+                                        String sortOn, boolean asc, TotalMode total) {
+        return slice(User.class, filters == null, FilterSpecifications.forUsers(filters),
+                Collections.singletonList("house"),
+                new PageRequest(cursor, pageNum, pageSize, sortOn, asc, total, null), User::createSimpleCopy);
+    }
+
+    @Transactional(readOnly = true)
+    public Map<String, Object> getHousesCupPoints(HousesCupPointsFilters filters, String cursor, int pageNum,
+                                                  int pageSize, String sortOn, boolean asc, TotalMode total) {
+        return slice(HousesCupPoints.class, filters == null, FilterSpecifications.forHousesCupPoints(filters),
+                Arrays.asList("house", "student", "assigningUser"),
+                new PageRequest(cursor, pageNum, pageSize, sortOn, asc, total,
+                        filters == null ? null : filters.getFullText()), HousesCupPoints::createSimpleCopy);
+    }
+
+    @Transactional(readOnly = true)
+    public Map<String, Object> getHouseChangeRequests(HouseChangeRequestFilters filters, String cursor, int pageNum,
+                                                      int pageSize, String sortOn, boolean asc, TotalMode total) {
+        return slice(HouseChangeRequest.class, filters == null, FilterSpecifications.forHouseChangeRequests(filters),
+                Arrays.asList("student", "oldHouse", "targetHouse"),
+                new PageRequest(cursor, pageNum, pageSize, sortOn, asc, total,
+                        filters == null ? null : filters.getFullText()),
+                request -> request.createSimpleVersion(request.getStudent()));
+    }
+
+    /**
+     * Reads a page of rows, following the cursor if one is given and at the offset of the page number otherwise.
+     * @param type - the listed entity
+     * @param unfiltered - whether the specification matches the whole table, which allows an estimated total
+     * @param specification - the filters to apply
+     * @param fetches - the single-valued associations used by the conversion, fetched in the same query
+     * @param request - the requested page; the sort order of a cursor replaces the requested one. Sorting on
+     *                {@link #RELEVANCE} requires a full text filter and is only available without a cursor
+     * @param simplifier - the conversion of a row to its representation in the response
+     * @return map holding the content of the page, its size, whether more rows follow, the cursor of the next page
+     * and the total if requested
+     */
+    private <T> Map<String, Object> slice(Class<T> type, boolean unfiltered, Specification<T> specification,
+                                          List<String> fetches, PageRequest request,
+                                          Function<T, Object> simplifier) {
+        if (request.pageSize < 1 || request.pageSize > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("Page size must be between 1 and " + MAX_PAGE_SIZE);
+        }
+        boolean keyset = request.cursor != null;
+        Cursor position = decode(request.cursor);
+        String sortOn = position == null ? request.sortOn : position.sortOn;
+        boolean asc = position == null ? request.asc : position.asc;
+        boolean relevance = RELEVANCE.equals(sortOn);
+        if (relevance && (keyset || request.fullText == null || request.fullText.isBlank())) {
+            throw new IllegalArgumentException("Sorting on relevance requires a full text filter and no cursor");
+        }
+        String idName = idAttribute(type);
+        boolean sortedOnId = sortOn.equals(idName);
+        int wanted = request.pageSize + 1;
+        int offset = request.pageNum * request.pageSize;
+        List<T> rows;
+        if (relevance) {
+            rows = read(type, specification, fetches, (root, cb) -> Arrays.asList(
+                    cb.desc(FilterSpecifications.fullTextRank(cb, root, request.fullText)),
+                    asc ? cb.asc(root.get(idName)) : cb.desc(root.get(idName))), offset, wanted);
+        } else if (sortedOnId) {
+            Specification<T> after = position == null ? specification : specification.and((root, query, cb) ->
+                    compare(cb, root.get(idName), position.id, asc));
+            rows = read(type, after, fetches, (root, cb) -> order(cb, asc, root.get(idName)),
+                    keyset ? 0 : offset, wanted);
+        } else {
+            Specification<T> sorted = specification.and((root, query, cb) -> cb.isNotNull(path(root, sortOn)));
+            boolean inNulls = position != null && position.value == null;
+            rows = new ArrayList<>();
+            if (!inNulls) {
+                Specification<T> head = position == null ? sorted : sorted.and((root, query, cb) ->
+                        seek(cb, path(root, sortOn), root.get(idName), position, asc));
+                rows.addAll(read(type, head, fetches,
+                        (root, cb) -> order(cb, asc, path(root, sortOn), root.get(idName)), keyset ? 0 : offset, wanted));
+            }
+            if (rows.size() < wanted) {
+                Specification<T> unsorted = specification.and((root, query, cb) -> cb.isNull(path(root, sortOn)));
+                Specification<T> tail = !inNulls ? unsorted : unsorted.and((root, query, cb) ->
+                        compare(cb, root.get(idName), position.id, asc));
+                int first = keyset || !rows.isEmpty() || offset == 0 ? 0 : (int) (offset - count(type, sorted));
+                rows.addAll(read(type, tail, fetches, (root, cb) -> order(cb, asc, root.get(idName)), first,
+                        wanted - rows.size()));
+            }
+        }
+        boolean hasNext = rows.size() > request.pageSize;
+        if (hasNext) {
+            rows = rows.subList(0, request.pageSize);
+        }
+        List<Object> content = new ArrayList<>(rows.size());
+        for (T row : rows) {
+            content.add(simplifier.apply(row));
+        }
+
+        Map<String, Object> page = new LinkedHashMap<>();
+        page.put("content", content);
+        page.put("size", content.size());
+        page.put("empty", content.isEmpty());
+        page.put("hasNext", hasNext);
+        if (keyset) {
+            String nextCursor = null;
+            if (hasNext) {
+                T last = rows.get(rows.size() - 1);
+                Cursor next = new Cursor();
+                next.sortOn = sortOn;
+                next.asc = asc;
+                next.value = sortedOnId ? null : value(last, sortOn);
+                next.id = entityManager.getEntityManagerFactory().getPersistenceUnitUtil().getIdentifier(last);
+                nextCursor = encode(next);
+            }
+            page.put("nextCursor", nextCursor);
+        } else {
+            page.put("number", request.pageNum);
+        }
+        if (request.total == TotalMode.EXACT) {
+            page.put("total", count(type, specification));
+            page.put("totalExact", true);
+        } else if (request.total == TotalMode.ESTIMATE && unfiltered) {
+            page.put("total", estimate(type));
+            page.put("totalExact", false);
+        }
+        return page;
+    }
+
+    /**
+     * Reads the rows matching a specification in the given order, fetching the given associations.
+     */
+    private <T> List<T> read(Class<T> type, Specification<T> specification, List<String> fetches,
+                             BiFunction<Root<T>, CriteriaBuilder, List<Order>> order, int first, int max) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<T> query = cb.createQuery(type);
+        Root<T> root = query.from(type);
+        for (String fetch : fetches) {
+            root.fetch(fetch, JoinType.LEFT);
+        }
+        query.select(root).where(specification.toPredicate(root, query, cb)).orderBy(order.apply(root, cb));
+        return entityManager.createQuery(query).setFirstResult(first).setMaxResults(max).getResultList();
+    }
+
+    private List<Order> order(CriteriaBuilder cb, boolean asc, Expression<?>... keys) {
+        List<Order> order = new ArrayList<>(keys.length);
+        for (Expression<?> key : keys) {
+            order.add(asc ? cb.asc(key) : cb.desc(key));
+        }
+        return order;
+    }
+
+    private <T> long count(Class<T> type, Specification<T> specification) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Long> query = cb.createQuery(Long.class);
+        Root<T> root = query.from(type);
+        Predicate predicate = specification.toPredicate(root, query, cb);
+        query.select(query.isDistinct() ? cb.countDistinct(root) : cb.count(root)).where(predicate);
+        return entityManager.createQuery(query).getSingleResult();
+    }
+
+    /**
+     * Reads the number of rows of the table of an entity from the planner statistics, which are kept up to date
+     * by autovacuum. No estimate is available for tables that were never analysed.
+     */
+    private Long estimate(Class<?> type) {
+        String table = ((AbstractEntityPersister) entityManager.getEntityManagerFactory()
+                .unwrap(SessionFactoryImplementor.class).getMetamodel().entityPersister(type)).getTableName();
+        List<?> result = entityManager.createNativeQuery("SELECT reltuples::bigint FROM pg_class\n" +
+                        "WHERE oid = to_regclass(:table)")
+                .setParameter("table", table)
+                .getResultList();
+        if (result.isEmpty() || ((Number) result.get(0)).longValue() < 0) {
+            return null;
+        }
+        return ((Number) result.get(0)).longValue();
+    }
+
+    /**
+     * Matches the rows with a sort value that come after the cursor position in the sort order, as a comparison of
+     * the row values (sort value, identifier) that an index on the two can serve.
+     */
+    private Predicate seek(CriteriaBuilder cb, Path<Object> sortKey, Path<Object> id, Cursor position, boolean asc) {
+        return cb.isTrue(cb.function(asc ? "keyset_after" : "keyset_before", Boolean.class, sortKey, id,
+                cb.literal(convert(position.value, sortKey.getJavaType())),
+                cb.literal(convert(position.id, id.getJavaType()))));
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Predicate compare(CriteriaBuilder cb, Path<Object> path, Object cursorValue, boolean asc) {
+        Expression<Comparable> comparable = (Expression<Comparable>) (Expression<?>) path;
+        Comparable value = (Comparable) convert(cursorValue, path.getJavaType());
+        return asc ? cb.greaterThan(comparable, value) : cb.lessThan(comparable, value);
+    }
+
+    /**
+     * Resolves a possibly nested attribute through left joins, so that rows without the association are sorted
+     * last rather than dropped by the inner join that navigating the path would imply.
+     */
+    private Path<Object> path(Root<?> root, String attribute) {
+        String[] parts = attribute.split("\\.");
+        From<?, ?> from = root;
+        for (int i = 0; i < parts.length - 1; i++) {
+            from = leftJoin(from, parts[i]);
+        }
+        return from.get(parts[parts.length - 1]);
+    }
+
+    private From<?, ?> leftJoin(From<?, ?> from, String attribute) {
+        for (Fetch<?, ?> fetch : from.getFetches()) {
+            if (fetch instanceof Join && fetch.getAttribute().getName().equals(attribute)
+                    && fetch.getJoinType() == JoinType.LEFT) {
+                return (Join<?, ?>) fetch;
+            }
+        }
+        for (Join<?, ?> join : from.getJoins()) {
+            if (join.getAttribute().getName().equals(attribute) && join.getJoinType() == JoinType.LEFT) {
+                return join;
+            }
+        }
+        return from.join(attribute, JoinType.LEFT);
+    }
+
+    private String idAttribute(Class<?> type) {
+        for (SingularAttribute<?, ?> attribute : entityManager.getMetamodel().entity(type).getSingularAttributes()) {
+            if (attribute.isId()) {
+                return attribute.getName();
+            }
+        }
+        throw new IllegalArgumentException(type.getSimpleName() + " has no single identifier");
+    }
+
+    /**
+     * Reads the value of a possibly nested attribute from a row through its getters.
+     */
+    private Object value(Object row, String attribute) {
+        Object value = row;
+        for (String part : attribute.split("\\.")) {
+            if (value == null) {
+                return null;
+            }
+            value = new BeanWrapperImpl(value).getPropertyValue(part);
+        }
+        return value;
+    }
+
+    private Object convert(Object value, Class<?> type) {
+        return value == null ? null : objectMapper.convertValue(value, type);
+    }
+
+    private String encode(Cursor cursor) {
+        try {
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(objectMapper.writeValueAsBytes(cursor));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Cursor decode(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        try {
+            return objectMapper.readValue(Base64.getUrlDecoder().decode(cursor), Cursor.class);
+        } catch (IOException | IllegalArgumentException e) {
+            throw new IllegalArgumentException("Cursor is not valid");
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.maat.service;
+
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.*;
+
+/**
+ * Service summing the Houses Cup points per house per day, week or month for the points history charts. Closed days
+ * are summed once into the house_points_daily table, from which weeks and months are summed as well; only the days
+ * after the last closed day are summed from the entries when a rollup is requested. Entries written with a date
+ * in a closed day mark that day in the house_points_stale_days table, by a trigger on the entries, to be summed again
+ * before the next rollup is read.
+ */
+@Service
+public class PointsRollupService {
+
+    /** Granularities a rollup can be requested in, as understood by date_trunc */
+    public static final Set<String> GRANULARITIES = Set.of("day", "week", "month");
+
+    /** Lock key keeping concurrent requests from summing the same days twice */
+    private static final long LOCK_KEY = 0x526f6c6cL;
+
+    @PersistenceContext
+    EntityManager entityManager;
+
+    /**
+     * Retrieves the points per house per period of an academic year, along with the running total of each house.
+     * @param year - the academic year
+     * @param granularity - "day", "week" or "month"
+     * @return map holding the academic year, the granularity and per house a list of periods, each with its first day,
+     * the points and number of entries in the period and the points of the house up to and including the period
+     */
+    @Transactional
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> getRollup(int year, String granularity) {
+        if (!GRANULARITIES.contains(granularity)) {
+            throw new IllegalArgumentException("Granularity must be one of " + GRANULARITIES);
+        }
+        rollUpClosedDays();
+        List<Object[]> rows = entityManager.createNativeQuery("SELECT date_trunc(:granularity, b.day)::date, b.house,\n" +
+                        "sum(b.points), sum(b.entries)\n" +
+                        "FROM (SELECT day, house, points, entries FROM house_points_daily\n" +
+                        "    WHERE academic_year = :year\n" +
+                        "    UNION ALL\n" +
+                        "    SELECT date_trunc('day', date)::date, house, sum(points), count(*) FROM houses_cup\n" +
+                        "    WHERE academic_year = :year AND house IS NOT NULL\n" +
+                        "    AND date >= (SELECT rolled_through FROM house_points_rollup_watermark WHERE id = 1) + 1\n" +
+                        "    GROUP BY 1, 2) b\n" +
+                        "GROUP BY 1, 2\n" +
+                        "ORDER BY 1, 2")
+                .setParameter("granularity", granularity)
+                .setParameter("year", year)
+                .getResultList();
+        Map<String, List<Map<String, Object>>> houses = new TreeMap<>();
+        Map<String, long[]> cumulative = new HashMap<>();
+        for (Object[] row : rows) {
+            String house = (String) row[1];
+            long points = ((Number) row[2]).longValue();
+            long total = cumulative.computeIfAbsent(house, key -> new long[1])[0] += points;
+            Map<String, Object> bucket = new LinkedHashMap<>();
+            bucket.put("start", row[0].toString());
+            bucket.put("points", points);
+            bucket.put("entries", ((Number) row[3]).longValue());
+            bucket.put("cumulative", total);
+            houses.computeIfAbsent(house, key -> new ArrayList<>()).add(bucket);
+        }
+        Map<String, Object> rollup = new LinkedHashMap<>();
+        rollup.put("academicYear", year);
+        rollup.put("granularity", granularity);
+        rollup.put("houses", houses);
+        return rollup;
+    }
+
+    /**
+     * Sums every closed day again from the entries.
+     */
+    @Transactional
+    public void rebuild() {
+        lock();
+        entityManager.createNativeQuery("DELETE FROM house_points_stale_days").executeUpdate();
+        entityManager.createNativeQuery("DELETE FROM house_points_daily").executeUpdate();
+        entityManager.createNativeQuery("UPDATE house_points_rollup_watermark SET rolled_through = '-infinity'\n" +
+                "WHERE id = 1").executeUpdate();
+        rollUpClosedDays();
+    }
+
+    /**
+     * Sums the days that closed since the last rollup and the closed days that changed since, holding a lock so
+     * that concurrent requests wait for the first one instead of summing the same days. The changed days are only
+     * cleared along with the rest of the transaction, so they are summed again if it rolls back.
+     */
+    private void rollUpClosedDays() {
+        lock();
+        List<?> stale = entityManager.createNativeQuery("DELETE FROM house_points_stale_days RETURNING day")
+                .getResultList();
+        for (Object day : stale) {
+            entityManager.createNativeQuery("DELETE FROM house_points_daily WHERE day = :day")
+                    .setParameter("day", day)
+                    .executeUpdate();
+            entityManager.createNativeQuery("INSERT INTO house_points_daily (day, house, academic_year, points, entries)\n" +
+                            "SELECT date_trunc('day', date)::date, house, min(academic_year), sum(points), count(*)\n" +
+                            "FROM houses_cup\n" +
+                            "WHERE date >= :day AND date < CAST(:day AS date) + 1 AND house IS NOT NULL\n" +
+                            "AND :day <= (SELECT rolled_through FROM house_points_rollup_watermark WHERE id = 1)\n" +
+                            "GROUP BY 1, 2")
+                    .setParameter("day", day)
+                    .executeUpdate();
+        }
+        entityManager.createNativeQuery("INSERT INTO house_points_daily (day, house, academic_year, points, entries)\n" +
+                "SELECT date_trunc('day', date)::date, house, min(academic_year), sum(points), count(*)\n" +
+                "FROM houses_cup\n" +
+                "WHERE date >= (SELECT rolled_through FROM house_points_rollup_watermark WHERE id = 1) + 1\n" +
+                "AND date < current_date AND house IS NOT NULL\n" +
+                "GROUP BY 1, 2\n" +
+                "ON CONFLICT (day, house) DO UPDATE\n" +
+                "SET points = EXCLUDED.points, entries = EXCLUDED.entries").executeUpdate();
+        entityManager.createNativeQuery("UPDATE house_points_rollup_watermark SET rolled_through = current_date - 1\n" +
+                "WHERE id = 1 AND rolled_through < current_date - 1").executeUpdate();
+    }
+
+    private void lock() {
+        entityManager.createNativeQuery("SELECT 1 FROM pg_advisory_xact_lock(:key)")
+                .setParameter("key", LOCK_KEY)
+                .getSingleResult();
+    }
+}
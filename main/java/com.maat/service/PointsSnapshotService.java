@@ -0,0 +1,227 @@
+package com.maat.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+
+/**
+ * Service reading the Houses Cup standings as they were at a moment in the past. The houses_cup table is treated
+ * as a ledger: checkpoints hold the totals per house and per student of the entries dated before their cutoff, and
+ * the standings at a moment are the last checkpoint before it plus the entries dated between the two. A checkpoint
+ * is taken every week and can be taken at any past moment, such as the end of a term. Writes of entries dated
+ * before a cutoff delete the checkpoint, see {@link com.maat.listener.HousePointsTotalsListener
+ * HousePointsTotalsListener}.
+ */
+@Service
+public class PointsSnapshotService {
+
+    /**
+     * The moment standings are requested at, along with the checkpoint they are read from.
+     */
+    public static class AsOf {
+        private final Timestamp until;
+        private final Long snapshotId;
+        private final Timestamp cutoff;
+
+        AsOf(Timestamp until, Long snapshotId, Timestamp cutoff) {
+            this.until = until;
+            this.snapshotId = snapshotId;
+            this.cutoff = cutoff;
+        }
+
+        /**
+         * @return a query of the totals per academic year, house and student at the moment, with the columns of
+         * student_points_totals
+         */
+        public String studentTotals() {
+            return "(SELECT academic_year, house, student, sum(points) AS points, sum(entries) AS entries FROM (\n" +
+                    "    SELECT academic_year, house, student, points, entries FROM points_snapshot_students\n" +
+                    "    WHERE snapshot_id = :snapshot\n" +
+                    "    UNION ALL\n" +
+                    "    SELECT academic_year, house, student, points, 1 FROM houses_cup\n" +
+                    "    WHERE " + tail() + " AND house IS NOT NULL AND student IS NOT NULL) l\n" +
+                    "GROUP BY academic_year, house, student)";
+        }
+
+        /**
+         * @return a query of the totals per academic year and house at the moment, with the columns of
+         * house_points_totals
+         */
+        public String houseTotals() {
+            return "(SELECT academic_year, house, sum(points) AS points, sum(entries) AS entries FROM (\n" +
+                    "    SELECT academic_year, house, points, entries FROM points_snapshot_houses\n" +
+                    "    WHERE snapshot_id = :snapshot\n" +
+                    "    UNION ALL\n" +
+                    "    SELECT academic_year, house, points, 1 FROM houses_cup\n" +
+                    "    WHERE " + tail() + " AND house IS NOT NULL) l\n" +
+                    "GROUP BY academic_year, house)";
+        }
+
+        /**
+         * Binds the parameters of the totals queries.
+         * @param query - a query using {@link #studentTotals()} or {@link #houseTotals()}
+         * @return the query
+         */
+        public Query bind(Query query) {
+            query.setParameter("snapshot", snapshotId == null ? -1L : snapshotId);
+            query.setParameter("until", until);
+            if (cutoff != null) {
+                query.setParameter("cutoff", cutoff);
+            }
+            return query;
+        }
+
+        private String tail() {
+            return cutoff == null ? "date < :until" : "date >= :cutoff AND date < :until";
+        }
+    }
+
+    /** Lock key keeping concurrent requests from taking the same checkpoint twice */
+    private static final long LOCK_KEY = 0x536e6170L;
+
+    @PersistenceContext
+    EntityManager entityManager;
+
+    @Autowired
+    TableVersions tableVersions;
+
+    /**
+     * Finds the checkpoint to read the standings at a moment from.
+     * @param asOf - a date, meaning the end of that day, or a date and time, in ISO format
+     * @return the moment and its checkpoint
+     */
+    @Transactional(readOnly = true)
+    public AsOf asOf(String asOf) {
+        return asOf(parse(asOf));
+    }
+
+    /**
+     * Retrieves the points per house of an academic year at a moment, in the shape of
+     * {@link HousePointsTotalsService#getPointsByHouse(int) getPointsByHouse}.
+     * @param year - the academic year
+     * @param asOf - a date, meaning the end of that day, or a date and time, in ISO format
+     * @return a list of pairs of house and points
+     */
+    @Transactional(readOnly = true)
+    @SuppressWarnings("unchecked")
+    public List<Object> getPointsByHouse(int year, String asOf) {
+        AsOf moment = asOf(asOf);
+        return moment.bind(entityManager.createNativeQuery("SELECT house, points FROM " + moment.houseTotals() +
+                        " t\n" +
+                        "WHERE academic_year = :year AND entries > 0\n" +
+                        "ORDER BY house")
+                .setParameter("year", year))
+                .getResultList();
+    }
+
+    /**
+     * Lists the checkpoints.
+     * @return the identifier, cutoff and creation time of every checkpoint, latest cutoff first
+     */
+    @Transactional(readOnly = true)
+    @SuppressWarnings("unchecked")
+    public List<Map<String, Object>> getSnapshots() {
+        List<Map<String, Object>> snapshots = new ArrayList<>();
+        for (Object[] row : (List<Object[]>) entityManager.createNativeQuery("SELECT id, cutoff, created\n" +
+                "FROM points_snapshots ORDER BY cutoff DESC").getResultList()) {
+            Map<String, Object> snapshot = new LinkedHashMap<>();
+            snapshot.put("id", ((Number) row[0]).longValue());
+            snapshot.put("cutoff", row[1]);
+            snapshot.put("created", row[2]);
+            snapshots.add(snapshot);
+        }
+        return snapshots;
+    }
+
+    /**
+     * Takes a checkpoint of the totals of the entries dated before a moment, summed from the previous checkpoint and
+     * the entries between the two. Writes to the entries are held back meanwhile, so that no write dated before the
+     * cutoff commits after it is summed.
+     * @param cutoff - a date, meaning the end of that day, or a date and time, in ISO format, not in the future
+     * @return the identifier of the checkpoint
+     */
+    @Transactional
+    public long takeSnapshot(String cutoff) {
+        return takeSnapshot(parse(cutoff));
+    }
+
+    /**
+     * Takes a checkpoint at the start of the day every week.
+     */
+    @Scheduled(cron = "${maat.points-snapshots.cron:0 0 3 * * MON}")
+    @Transactional
+    public void takeWeeklySnapshot() {
+        takeSnapshot(Timestamp.valueOf(LocalDate.now().atStartOfDay()));
+    }
+
+    private long takeSnapshot(Timestamp cutoff) {
+        if (cutoff.after(new Date())) {
+            throw new IllegalArgumentException("Cannot take a checkpoint at " + cutoff + ", which is in the future");
+        }
+        entityManager.createNativeQuery("SELECT 1 FROM pg_advisory_xact_lock(:key)")
+                .setParameter("key", LOCK_KEY)
+                .getSingleResult();
+        entityManager.createNativeQuery("LOCK TABLE houses_cup IN SHARE MODE").executeUpdate();
+        List<?> existing = entityManager.createNativeQuery("SELECT id FROM points_snapshots WHERE cutoff = :cutoff")
+                .setParameter("cutoff", cutoff)
+                .getResultList();
+        if (!existing.isEmpty()) {
+            return ((Number) existing.get(0)).longValue();
+        }
+        AsOf previous = asOf(cutoff);
+        long id = ((Number) entityManager.createNativeQuery("INSERT INTO points_snapshots (cutoff) VALUES (:cutoff)\n" +
+                        "RETURNING id")
+                .setParameter("cutoff", cutoff)
+                .getSingleResult()).longValue();
+        previous.bind(entityManager.createNativeQuery("INSERT INTO points_snapshot_houses " +
+                        "(snapshot_id, academic_year, house, points, entries)\n" +
+                        "SELECT :id, academic_year, house, points, entries FROM " + previous.houseTotals() + " t")
+                .setParameter("id", id))
+                .executeUpdate();
+        previous.bind(entityManager.createNativeQuery("INSERT INTO points_snapshot_students " +
+                        "(snapshot_id, academic_year, house, student, points, entries)\n" +
+                        "SELECT :id, academic_year, house, student, points, entries FROM " +
+                        previous.studentTotals() + " t")
+                .setParameter("id", id))
+                .executeUpdate();
+        tableVersions.bump("points_snapshots");
+        return id;
+    }
+
+    private AsOf asOf(Timestamp until) {
+        List<?> snapshots = entityManager.createNativeQuery("SELECT id, cutoff FROM points_snapshots\n" +
+                        "WHERE cutoff <= :until ORDER BY cutoff DESC LIMIT 1")
+                .setParameter("until", until)
+                .getResultList();
+        if (snapshots.isEmpty()) {
+            return new AsOf(until, null, null);
+        }
+        Object[] snapshot = (Object[]) snapshots.get(0);
+        return new AsOf(until, ((Number) snapshot[0]).longValue(), (Timestamp) snapshot[1]);
+    }
+
+    /**
+     * Reads a moment given as a date, meaning the end of that day, or as a date and time.
+     */
+    private Timestamp parse(String moment) {
+        try {
+            return Timestamp.valueOf(LocalDate.parse(moment).plusDays(1).atStartOfDay());
+        } catch (DateTimeParseException e) {
+            try {
+                return Timestamp.valueOf(LocalDateTime.parse(moment));
+            } catch (DateTimeParseException e2) {
+                throw new IllegalArgumentException("Expected a date or date and time in ISO format, got " + moment);
+            }
+        }
+    }
+}
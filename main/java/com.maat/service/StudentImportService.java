@@ -0,0 +1,324 @@
+package com.maat.service;
+
+import com.maat.helper.CSVDialectRegistry;
+import com.maat.helper.IntObjectHashMap;
+import com.maat.helper.StudentCSVReader;
+import com.maat.model.ImportProgress;
+import com.maat.model.Student;
+import com.maat.repository.StudentBulkRepository;
+import com.maat.repository.StudentFingerprintRepository;
+import com.maat.repository.StudentRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Service importing roster exports straight from a stream. Rows are written in fixed-size chunks,
+ * each in its own transaction, and the persistence context is cleared after every chunk so that no more than one
+ * chunk of students is held in memory regardless of the size of the file.
+ */
+@Service
+public class StudentImportService {
+
+    /** Number of rows written per transaction */
+    public static final int CHUNK_SIZE = 1000;
+
+    /**
+     * The ways a chunk of rows can be written to the database.
+     */
+    public enum WriteMode {
+        /** Students are loaded, merged and saved as entities */
+        JPA,
+        /** Rows are copied into a staging table and merged with set-based statements */
+        COPY
+    }
+
+    @PersistenceContext
+    EntityManager entityManager;
+
+    @Autowired
+    StudentRepository studentRepository;
+
+    @Autowired
+    StudentBulkRepository studentBulkRepository;
+
+    @Autowired
+    StudentFingerprintRepository fingerprintRepository;
+
+    @Autowired
+    CSVDialectRegistry dialects;
+
+    @Autowired
+    FilterablesIndex filterablesIndex;
+
+    @Autowired
+    TableVersions tableVersions;
+
+    @Autowired
+    TypeaheadIndex typeaheadIndex;
+
+    private final TransactionTemplate transactionTemplate;
+
+    @Autowired
+    public StudentImportService(PlatformTransactionManager transactionManager) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Imports a roster export read from the given stream.
+     * @param in - the raw CSV data
+     * @param mode - the way chunks are written to the database
+     * @return the counters of the finished import
+     * @throws IOException - if the data cannot be read or is not a known export
+     */
+    public ImportProgress importStream(InputStream in, WriteMode mode) throws IOException {
+        ImportProgress progress = new ImportProgress();
+        importStream(in, progress, mode);
+        return progress;
+    }
+
+    /**
+     * Imports a roster export read from the given stream, reporting on the given counters while it runs.
+     * Rows whose content hash matches the one stored at the previous import of the same sheet are skipped
+     * before any student is loaded, so a re-import only costs time for the rows that changed.
+     * @param in - the raw CSV data
+     * @param progress - counters to report on, also used to request cancellation
+     * @param mode - the way chunks are written to the database
+     * @throws IOException - if the data cannot be read or is not a known export
+     * @throws CancellationException - if cancellation was requested before the import finished
+     */
+    public void importStream(InputStream in, ImportProgress progress, WriteMode mode) throws IOException {
+        try (StudentCSVReader reader = new StudentCSVReader(in, dialects, progress)) {
+            String source = reader.getDialect().getName();
+            BitSet seen = new BitSet();
+            List<PendingStudent> chunk = new ArrayList<>(CHUNK_SIZE);
+            while (reader.hasNext()) {
+                checkCancelled(progress);
+                StudentCSVReader.Row row = reader.next();
+                seen.set(row.getStudent().getIdNumber());
+                chunk.add(new PendingStudent(row.getStudent()).addFingerprint(source, row.getFingerprint()));
+                if (chunk.size() == CHUNK_SIZE) {
+                    writeChunk(chunk, progress, mode);
+                    chunk.clear();
+                }
+            }
+            if (!chunk.isEmpty()) {
+                writeChunk(chunk, progress, mode);
+            }
+            countVanished(source, seen, progress);
+        }
+    }
+
+    /**
+     * Imports several roster exports, such as the Osiris and Canvas sheets of the same cohort, at once. The rows of
+     * all files are joined in memory on student number first, so that every student is written exactly once with
+     * the status following from all sheets together.
+     * @param files - the raw CSV data of each file
+     * @param progress - counters to report on, also used to request cancellation
+     * @param mode - the way chunks are written to the database
+     * @throws IOException - if the data cannot be read or a file is not a known export
+     * @throws CancellationException - if cancellation was requested before the import finished
+     */
+    public void importMerged(List<InputStream> files, ImportProgress progress, WriteMode mode) throws IOException {
+        IntObjectHashMap<PendingStudent> joined = new IntObjectHashMap<>();
+        Map<String, BitSet> seen = new HashMap<>();
+        for (InputStream in : files) {
+            try (StudentCSVReader reader = new StudentCSVReader(in, dialects, progress)) {
+                String source = reader.getDialect().getName();
+                BitSet seenInSource = seen.computeIfAbsent(source, type -> new BitSet());
+                while (reader.hasNext()) {
+                    checkCancelled(progress);
+                    StudentCSVReader.Row row = reader.next();
+                    int idNumber = row.getStudent().getIdNumber();
+                    seenInSource.set(idNumber);
+                    PendingStudent pending = joined.get(idNumber);
+                    if (pending == null) {
+                        joined.put(idNumber, new PendingStudent(row.getStudent()).addFingerprint(source, row.getFingerprint()));
+                    } else {
+                        pending.getStudent().mergeImportedData(row.getStudent());
+                        pending.addFingerprint(source, row.getFingerprint());
+                    }
+                }
+            }
+        }
+        List<PendingStudent> chunk = new ArrayList<>(CHUNK_SIZE);
+        joined.forEachValue(pending -> {
+            chunk.add(pending);
+            if (chunk.size() == CHUNK_SIZE) {
+                checkCancelled(progress);
+                writeChunk(chunk, progress, mode);
+                chunk.clear();
+            }
+        });
+        if (!chunk.isEmpty()) {
+            writeChunk(chunk, progress, mode);
+        }
+        for (Map.Entry<String, BitSet> entry : seen.entrySet()) {
+            countVanished(entry.getKey(), entry.getValue(), progress);
+        }
+    }
+
+    private void checkCancelled(ImportProgress progress) {
+        if (progress.isCancelRequested()) {
+            throw new CancellationException("Import cancelled after " + progress.getRowsWritten() + " rows");
+        }
+    }
+
+    /**
+     * Every imported student now has a fingerprint for the source, the remaining ones were not in the file.
+     */
+    private void countVanished(String source, BitSet seen, ImportProgress progress) {
+        progress.getStudentsVanished().addAndGet(fingerprintRepository.countStudentsBySource(source) - seen.cardinality());
+    }
+
+    /**
+     * Writes the changed students of a chunk within a single transaction, along with their new content hashes.
+     * A student is unchanged only if the rows of every sheet it was read from match the previous import.
+     * @param chunk - the parsed students
+     * @param progress - counters to register the written rows on
+     * @param mode - the way the rows are written to the database
+     */
+    private void writeChunk(List<PendingStudent> chunk, ImportProgress progress, WriteMode mode) {
+        Boolean written = transactionTemplate.execute(status -> {
+            List<Integer> ids = new ArrayList<>(chunk.size());
+            Set<String> sources = new HashSet<>();
+            for (PendingStudent pending : chunk) {
+                ids.add(pending.getStudent().getIdNumber());
+                sources.addAll(pending.getFingerprints().keySet());
+            }
+            Map<String, Map<Integer, Long>> storedHashes = new HashMap<>();
+            for (String source : sources) {
+                Map<Integer, Long> hashes = new HashMap<>();
+                for (Object[] stored : fingerprintRepository.findHashes(source, ids)) {
+                    hashes.put(((Number) stored[0]).intValue(), ((Number) stored[1]).longValue());
+                }
+                storedHashes.put(source, hashes);
+            }
+            List<PendingStudent> changed = new ArrayList<>();
+            for (PendingStudent pending : chunk) {
+                if (pending.matches(storedHashes)) {
+                    progress.getRowsUnchanged().incrementAndGet();
+                } else {
+                    changed.add(pending);
+                }
+            }
+            if (changed.isEmpty()) {
+                return false;
+            }
+            List<Student> students = new ArrayList<>(changed.size());
+            for (PendingStudent pending : changed) {
+                students.add(pending.getStudent());
+            }
+            int inserted = mode == WriteMode.COPY ? studentBulkRepository.upsert(students) : mergeEntities(students);
+            for (String source : sources) {
+                List<Integer> changedIds = new ArrayList<>();
+                List<Long> changedHashes = new ArrayList<>();
+                for (PendingStudent pending : changed) {
+                    Long hash = pending.getFingerprints().get(source);
+                    if (hash != null) {
+                        changedIds.add(pending.getStudent().getIdNumber());
+                        changedHashes.add(hash);
+                    }
+                }
+                studentBulkRepository.upsertFingerprints(source, changedIds.toArray(new Integer[0]),
+                        changedHashes.toArray(new Long[0]));
+            }
+            progress.getRowsInserted().addAndGet(inserted);
+            progress.getRowsUpdated().addAndGet(changed.size() - inserted);
+            progress.getRowsWritten().addAndGet(changed.size());
+            return true;
+        });
+        if (!Boolean.TRUE.equals(written)) {
+            return;
+        }
+        // Student roles are always added with native statements, and rows copied in bypass Hibernate altogether,
+        // so anything derived from those tables is not updated through its events
+        tableVersions.bump("user_roles");
+        if (mode == WriteMode.COPY) {
+            filterablesIndex.invalidate("students");
+            typeaheadIndex.invalidate();
+            tableVersions.bump("students");
+        }
+    }
+
+    /**
+     * Merges a chunk of parsed rows into the students table through JPA. Existing students are loaded with one
+     * query for the whole chunk, new students are inserted along with their student role.
+     * @param rows - the parsed rows
+     * @return the number of students that did not exist yet
+     */
+    private int mergeEntities(List<Student> rows) {
+        Set<Integer> ids = new HashSet<>();
+        for (Student row : rows) {
+            ids.add(row.getIdNumber());
+        }
+        Map<Integer, Student> students = new HashMap<>();
+        for (Student student : studentRepository.findAllById(ids)) {
+            students.put(student.getIdNumber(), student);
+        }
+        List<Student> created = new ArrayList<>();
+        for (Student row : rows) {
+            Student student = students.get(row.getIdNumber());
+            if (student == null) {
+                row.setEnabled(true);
+                row.evaluateStatus();
+                entityManager.persist(row);
+                students.put(row.getIdNumber(), row);
+                created.add(row);
+            } else {
+                student.mergeImportedData(row);
+                student.evaluateStatus();
+            }
+        }
+        // Flush before the native role inserts, which would otherwise force a flush for every new student
+        entityManager.flush();
+        for (Student student : created) {
+            studentRepository.addStudentRole(student);
+        }
+        entityManager.clear();
+        return created.size();
+    }
+
+    /**
+     * A student read from one or more sheets that is waiting to be written, with the content hash of its row
+     * in each of those sheets.
+     */
+    private static class PendingStudent {
+        private final Student student;
+        private final Map<String, Long> fingerprints = new HashMap<>(4);
+
+        PendingStudent(Student student) {
+            this.student = student;
+        }
+
+        PendingStudent addFingerprint(String source, long fingerprint) {
+            fingerprints.put(source, fingerprint);
+            return this;
+        }
+
+        Student getStudent() {
+            return student;
+        }
+
+        Map<String, Long> getFingerprints() {
+            return fingerprints;
+        }
+
+        boolean matches(Map<String, Map<Integer, Long>> storedHashes) {
+            for (Map.Entry<String, Long> entry : fingerprints.entrySet()) {
+                if (!entry.getValue().equals(storedHashes.get(entry.getKey()).get(student.getIdNumber()))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.maat.service;
+
+import com.maat.model.StudentRanking;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+/**
+ * Service ranking students on their Houses Cup points within their house and among all students of an academic
+ * year. Rankings are computed with window functions over the maintained totals per student in student_points_totals,
+ * so that a client can show the position of one student without reading the totals of all students. Rankings at a
+ * past moment are computed over the totals at that moment instead, see {@link PointsSnapshotService}.
+ */
+@Service
+public class StudentRankingService {
+
+    /** Largest number of students returned in one list */
+    public static final int MAX_LIMIT = 500;
+
+    @PersistenceContext
+    EntityManager entityManager;
+
+    /**
+     * Retrieves the best students of a house, or of all houses.
+     * @param year - the academic year
+     * @param house - the house, or null to rank all students
+     * @param limit - the number of students
+     * @param asOf - the moment to rank at, or null to rank the current totals
+     * @return the ranking of the best students, best first
+     */
+    @Transactional(readOnly = true)
+    public List<StudentRanking> getTop(int year, String house, int limit, PointsSnapshotService.AsOf asOf) {
+        checkLimit(limit);
+        return rank(year, house, asOf, "r.position <= :limit", query -> query.setParameter("limit", (long) limit));
+    }
+
+    /**
+     * Retrieves the position of a student within the house they are in and among all students.
+     * @param year - the academic year
+     * @param studentId - the id number of the student
+     * @param asOf - the moment to rank at, or null to rank the current totals
+     * @return map holding the ranking of the student in their house under "house" and among all students under
+     * "overall", each null if the student has no points in the year
+     */
+    @Transactional(readOnly = true)
+    public Map<String, StudentRanking> getStudentRanking(int year, int studentId, PointsSnapshotService.AsOf asOf) {
+        Map<String, StudentRanking> rankings = new LinkedHashMap<>();
+        String house = houseOf(year, studentId, asOf);
+        rankings.put("house", house == null ? null : single(rank(year, house, asOf, "r.student = :student",
+                query -> query.setParameter("student", studentId))));
+        rankings.put("overall", single(rank(year, null, asOf, "r.student = :student",
+                query -> query.setParameter("student", studentId))));
+        return rankings;
+    }
+
+    /**
+     * Retrieves the students ranked just above and below a student, along with the student.
+     * @param year - the academic year
+     * @param studentId - the id number of the student
+     * @param overall - whether to rank all students instead of the students of the house of the student
+     * @param radius - the number of students to include on either side
+     * @param asOf - the moment to rank at, or null to rank the current totals
+     * @return the ranking of the neighbouring students, best first, or an empty list if the student has no points
+     */
+    @Transactional(readOnly = true)
+    public List<StudentRanking> getNeighbours(int year, int studentId, boolean overall, int radius,
+                                              PointsSnapshotService.AsOf asOf) {
+        checkLimit(2 * radius + 1);
+        String house = overall ? null : houseOf(year, studentId, asOf);
+        if (!overall && house == null) {
+            return new ArrayList<>();
+        }
+        return rank(year, house, asOf,
+                "abs(r.position - (SELECT position FROM ranked WHERE student = :student)) <= :radius",
+                query -> query.setParameter("student", studentId).setParameter("radius", (long) radius));
+    }
+
+    /**
+     * Finds the house a student earned points for in a year, preferring the house they are in now.
+     */
+    private String houseOf(int year, int studentId, PointsSnapshotService.AsOf asOf) {
+        Query query = entityManager.createNativeQuery("SELECT t.house FROM " + totals(asOf) + " t\n" +
+                        "LEFT JOIN students s ON s.id_number = t.student\n" +
+                        "WHERE t.academic_year = :year AND t.student = :student AND t.entries > 0\n" +
+                        "ORDER BY (t.house = s.house) DESC NULLS LAST, t.points DESC\n" +
+                        "LIMIT 1")
+                .setParameter("year", year)
+                .setParameter("student", studentId);
+        List<?> houses = (asOf == null ? query : asOf.bind(query)).getResultList();
+        return houses.isEmpty() ? null : (String) houses.get(0);
+    }
+
+    /**
+     * Ranks the students of a house, or all students, and returns the rows matching a condition on the ranked rows.
+     * @param year - the academic year
+     * @param house - the house, or null to rank the totals of all houses together
+     * @param asOf - the moment to rank at, or null to rank the current totals
+     * @param condition - the condition on the ranked rows, named r, which have a student, rank and position
+     * @param parameters - binds the parameters of the condition
+     */
+    @SuppressWarnings("unchecked")
+    private List<StudentRanking> rank(int year, String house, PointsSnapshotService.AsOf asOf, String condition,
+                                      UnaryOperator<Query> parameters) {
+        String source = house == null
+                ? "SELECT student, CAST(NULL AS varchar) AS house, sum(points) AS points\n" +
+                "    FROM " + totals(asOf) + " a\n" +
+                "    WHERE academic_year = :year GROUP BY student HAVING sum(entries) > 0"
+                : "SELECT student, house, points FROM " + totals(asOf) + " a\n" +
+                "    WHERE academic_year = :year AND house = :house AND entries > 0";
+        Query query = entityManager.createNativeQuery("WITH ranked AS (\n" +
+                "    SELECT t.student, t.house, t.points,\n" +
+                "    rank() OVER (ORDER BY t.points DESC) AS rank,\n" +
+                "    count(*) OVER () AS size,\n" +
+                "    cume_dist() OVER (ORDER BY t.points) AS cume,\n" +
+                "    row_number() OVER (ORDER BY t.points DESC, t.student) AS position\n" +
+                "    FROM (" + source + ") t)\n" +
+                "SELECT r.student, s.first_name, s.last_name, r.house, r.points, r.rank, r.size, r.cume\n" +
+                "FROM ranked r\n" +
+                "LEFT JOIN students s ON s.id_number = r.student\n" +
+                "WHERE " + condition + "\n" +
+                "ORDER BY r.position")
+                .setParameter("year", year);
+        if (house != null) {
+            query.setParameter("house", house);
+        }
+        if (asOf != null) {
+            asOf.bind(query);
+        }
+        List<StudentRanking> rankings = new ArrayList<>();
+        for (Object[] row : (List<Object[]>) parameters.apply(query).getResultList()) {
+            rankings.add(new StudentRanking(((Number) row[0]).intValue(), (String) row[1], (String) row[2],
+                    (String) row[3], ((Number) row[4]).longValue(), ((Number) row[5]).longValue(),
+                    ((Number) row[6]).longValue(), Math.round(((Number) row[7]).doubleValue() * 1000) / 10.0));
+        }
+        return rankings;
+    }
+
+    private String totals(PointsSnapshotService.AsOf asOf) {
+        return asOf == null ? "student_points_totals" : asOf.studentTotals();
+    }
+
+    private StudentRanking single(List<StudentRanking> rankings) {
+        return rankings.isEmpty() ? null : rankings.get(0);
+    }
+
+    private void checkLimit(int limit) {
+        if (limit < 1 || limit > MAX_LIMIT) {
+            throw new IllegalArgumentException("Number of students must be between 1 and " + MAX_LIMIT);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.maat.service;
+
+import com.maat.listener.EntityChange;
+import com.maat.listener.EntityChangeObserver;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Version counter per table, raised on every committed change to the table. Anything derived from the contents of a
+ * table can be cached for as long as the version of the table stays the same. Changes made through JPA are counted
+ * automatically; writers that bypass JPA must call {@link #bump(String)} after committing.
+ */
+@Service
+public class TableVersions implements EntityChangeObserver {
+
+    private final Map<String, AtomicLong> versions = new ConcurrentHashMap<>();
+
+    /** Time the counters started at, to tell versions of different runs of the application apart */
+    private final long epoch = System.currentTimeMillis();
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Retrieves the current version of a table.
+     * @param table - the name of the table
+     * @return the number of changes to the table since the application started
+     */
+    public long get(String table) {
+        AtomicLong version = versions.get(table);
+        return version == null ? 0 : version.get();
+    }
+
+    /**
+     * Registers a committed change to a table.
+     * @param table - the name of the table
+     */
+    public void bump(String table) {
+        versions.computeIfAbsent(table, key -> new AtomicLong()).incrementAndGet();
+    }
+
+    @Override
+    public void onChange(EntityChange change) {
+        bump(change.getTable());
+    }
+}
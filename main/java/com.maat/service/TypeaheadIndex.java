@@ -0,0 +1,316 @@
+package com.maat.service;
+
+import com.maat.listener.EntityChange;
+import com.maat.listener.EntityChangeObserver;
+import org.springframework.stereotype.Service;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.text.Normalizer;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory search index over the names, emails and id numbers of students and staff, answering the search boxes of
+ * the Maat webapp without scanning the tables. Text is folded to lower case without diacritics, so that "Bjorn"
+ * finds "Björn". Query words of fewer than three characters match the start of a word through a sorted map of
+ * words; longer query words match anywhere in a word through the trigrams they consist of. The index follows writes
+ * through JPA and is read again from the database after a bulk write announced through {@link #invalidate()}.
+ */
+@Service
+public class TypeaheadIndex implements EntityChangeObserver {
+
+    /** Largest number of matches returned for one query */
+    public static final int MAX_LIMIT = 50;
+
+    /** Tables the index is built from, with the kind of person in each */
+    private static final Map<String, String> KINDS = Map.of("students", "student", "users", "user");
+
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+
+    private static final Pattern WORD_SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    /**
+     * A student or staff member as found in the index.
+     */
+    private static class Entry {
+        private final String kind;
+        private final Integer idNumber;
+        private final String firstName;
+        private final String lastName;
+        private final String linkName;
+        private final String email;
+        private final Set<String> words;
+
+        Entry(String kind, Integer idNumber, String firstName, String lastName, String linkName, String email) {
+            this.kind = kind;
+            this.idNumber = idNumber;
+            this.firstName = firstName;
+            this.lastName = lastName;
+            this.linkName = linkName;
+            this.email = email;
+            this.words = new HashSet<>();
+            for (String field : new String[]{firstName, lastName, linkName, email,
+                    idNumber == null ? null : idNumber.toString()}) {
+                if (field == null) {
+                    continue;
+                }
+                String folded = fold(field);
+                if (!folded.isEmpty()) {
+                    words.add(folded);
+                }
+                for (String word : WORD_SEPARATORS.split(folded)) {
+                    if (!word.isEmpty()) {
+                        words.add(word);
+                    }
+                }
+            }
+        }
+
+        private Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("type", kind);
+            map.put("idNumber", idNumber);
+            map.put("firstName", firstName);
+            map.put("lastName", lastName);
+            map.put("linkName", linkName);
+            map.put("email", email);
+            return map;
+        }
+    }
+
+    @PersistenceContext
+    EntityManager entityManager;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    private final TreeMap<String, Set<Entry>> words = new TreeMap<>();
+
+    private final Map<String, Set<Entry>> trigrams = new HashMap<>();
+
+    private final AtomicLong changeCount = new AtomicLong();
+
+    private volatile boolean built;
+
+    /**
+     * Finds the students and staff members matching every word of a query, best matches first. A word matching a
+     * whole word of a person ranks above a word matching its start, which ranks above a word matching elsewhere.
+     * @param query - the text typed in a search box
+     * @param limit - the largest number of matches to return
+     * @return the matching persons, each with its type ("student" or "user"), id number, names and email
+     */
+    public List<Map<String, Object>> search(String query, int limit) {
+        if (limit < 1 || limit > MAX_LIMIT) {
+            throw new IllegalArgumentException("Limit must be between 1 and " + MAX_LIMIT);
+        }
+        List<String> queryWords = new ArrayList<>();
+        for (String word : WHITESPACE.split(fold(query == null ? "" : query).trim())) {
+            if (!word.isEmpty()) {
+                queryWords.add(word);
+            }
+        }
+        if (queryWords.isEmpty()) {
+            return Collections.emptyList();
+        }
+        if (!built) {
+            rebuild();
+        }
+        Map<Entry, int[]> scores = null;
+        lock.readLock().lock();
+        try {
+            for (String word : queryWords) {
+                Map<Entry, int[]> matches = match(word);
+                if (scores == null) {
+                    scores = matches;
+                } else {
+                    scores.keySet().retainAll(matches.keySet());
+                    for (Map.Entry<Entry, int[]> score : scores.entrySet()) {
+                        score.getValue()[0] += matches.get(score.getKey())[0];
+                    }
+                }
+                if (scores.isEmpty()) {
+                    return Collections.emptyList();
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        List<Map.Entry<Entry, int[]>> ranked = new ArrayList<>(scores.entrySet());
+        ranked.sort(Comparator.<Map.Entry<Entry, int[]>>comparingInt(score -> -score.getValue()[0])
+                .thenComparing(score -> score.getKey().lastName, Comparator.nullsLast(String.CASE_INSENSITIVE_ORDER))
+                .thenComparing(score -> score.getKey().firstName, Comparator.nullsLast(String.CASE_INSENSITIVE_ORDER)));
+        List<Map<String, Object>> result = new ArrayList<>(Math.min(limit, ranked.size()));
+        for (Map.Entry<Entry, int[]> score : ranked.subList(0, Math.min(limit, ranked.size()))) {
+            result.add(score.getKey().toMap());
+        }
+        return result;
+    }
+
+    /**
+     * Finds the persons having a word that contains a query word, scored by how well the best of their words matches.
+     * Must be called holding the read lock.
+     */
+    private Map<Entry, int[]> match(String queryWord) {
+        Map<Entry, int[]> matches = new HashMap<>();
+        if (queryWord.length() < 3) {
+            for (Map.Entry<String, Set<Entry>> word : words.subMap(queryWord, queryWord + Character.MAX_VALUE)
+                    .entrySet()) {
+                int score = word.getKey().equals(queryWord) ? 3 : 2;
+                for (Entry entry : word.getValue()) {
+                    int[] best = matches.computeIfAbsent(entry, key -> new int[1]);
+                    best[0] = Math.max(best[0], score);
+                }
+            }
+            return matches;
+        }
+        Set<Entry> candidates = null;
+        for (String trigram : trigrams(queryWord)) {
+            Set<Entry> posting = trigrams.get(trigram);
+            if (posting == null) {
+                return matches;
+            }
+            if (candidates == null) {
+                candidates = new HashSet<>(posting);
+            } else {
+                candidates.retainAll(posting);
+            }
+        }
+        for (Entry entry : candidates) {
+            int score = 0;
+            for (String word : entry.words) {
+                if (word.equals(queryWord)) {
+                    score = 3;
+                } else if (word.startsWith(queryWord)) {
+                    score = Math.max(score, 2);
+                } else if (word.contains(queryWord)) {
+                    score = Math.max(score, 1);
+                }
+            }
+            if (score > 0) {
+                matches.put(entry, new int[]{score});
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Reads all students and staff members from the database and replaces the contents of the index. If either
+     * table changes while it is being read, the index is read again on the next query.
+     */
+    @SuppressWarnings("unchecked")
+    public void rebuild() {
+        long changesBefore = changeCount.get();
+        List<Entry> read = new ArrayList<>();
+        for (Map.Entry<String, String> table : KINDS.entrySet()) {
+            List<Object[]> rows = entityManager.createNativeQuery(
+                            "SELECT id_number, first_name, last_name, link_name, email FROM " + table.getKey())
+                    .getResultList();
+            for (Object[] row : rows) {
+                read.add(new Entry(table.getValue(), row[0] == null ? null : ((Number) row[0]).intValue(),
+                        (String) row[1], (String) row[2], (String) row[3], (String) row[4]));
+            }
+        }
+        lock.writeLock().lock();
+        try {
+            entries.clear();
+            words.clear();
+            trigrams.clear();
+            for (Entry entry : read) {
+                add(entry);
+            }
+            built = changeCount.get() == changesBefore;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Makes the index read the tables again on the next query, after persons were written without JPA.
+     */
+    public void invalidate() {
+        changeCount.incrementAndGet();
+        built = false;
+    }
+
+    @Override
+    public void onChange(EntityChange change) {
+        String kind = KINDS.get(change.getTable());
+        if (kind == null) {
+            return;
+        }
+        changeCount.incrementAndGet();
+        if (!built) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            Map<String, Object> oldValues = change.getOldValues() != null ? change.getOldValues()
+                    : change.getNewValues();
+            Entry old = entries.get(kind + ":" + oldValues.get("id_number"));
+            if (old != null) {
+                remove(old);
+            }
+            Map<String, Object> values = change.getNewValues();
+            if (values != null) {
+                add(new Entry(kind, (Integer) values.get("id_number"), (String) values.get("first_name"),
+                        (String) values.get("last_name"), (String) values.get("link_name"),
+                        (String) values.get("email")));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void add(Entry entry) {
+        entries.put(entry.kind + ":" + entry.idNumber, entry);
+        for (String word : entry.words) {
+            words.computeIfAbsent(word, key -> new HashSet<>()).add(entry);
+            for (String trigram : trigrams(word)) {
+                trigrams.computeIfAbsent(trigram, key -> new HashSet<>()).add(entry);
+            }
+        }
+    }
+
+    private void remove(Entry entry) {
+        entries.remove(entry.kind + ":" + entry.idNumber);
+        for (String word : entry.words) {
+            removeFrom(words, word, entry);
+            for (String trigram : trigrams(word)) {
+                removeFrom(trigrams, trigram, entry);
+            }
+        }
+    }
+
+    private static void removeFrom(Map<String, Set<Entry>> postings, String key, Entry entry) {
+        Set<Entry> posting = postings.get(key);
+        if (posting != null) {
+            posting.remove(entry);
+            if (posting.isEmpty()) {
+                postings.remove(key);
+            }
+        }
+    }
+
+    private static Set<String> trigrams(String word) {
+        Set<String> result = new HashSet<>();
+        for (int i = 0; i + 3 <= word.length(); i++) {
+            result.add(word.substring(i, i + 3));
+        }
+        return result;
+    }
+
+    /**
+     * Folds text to lower case without diacritics.
+     */
+    static String fold(String text) {
+        return DIACRITICS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("")
+                .toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,12 @@
+-- Text search documents of the explanations, kept up to date by the database, and their GIN indexes.
+-- The columns are also declared on the entities, so Hibernate may already have added them.
+
+ALTER TABLE houses_cup ADD COLUMN IF NOT EXISTS search_vector tsvector
+    GENERATED ALWAYS AS (to_tsvector('english', coalesce(explanation, ''))) STORED;
+
+CREATE INDEX IF NOT EXISTS houses_cup_search_vector_idx ON houses_cup USING gin (search_vector);
+
+ALTER TABLE house_change_requests ADD COLUMN IF NOT EXISTS search_vector tsvector
+    GENERATED ALWAYS AS (to_tsvector('english', coalesce(explanation, '') || ' ' || coalesce(denial_explanation, ''))) STORED;
+
+CREATE INDEX IF NOT EXISTS house_change_requests_search_vector_idx ON house_change_requests USING gin (search_vector);
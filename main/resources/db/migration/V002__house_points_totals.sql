@@ -0,0 +1,15 @@
+-- Running totals of the Houses Cup points per house and academic year, seeded from the existing entries.
+
+CREATE TABLE IF NOT EXISTS house_points_totals (
+    academic_year integer NOT NULL,
+    house varchar(255) NOT NULL,
+    points bigint NOT NULL,
+    entries bigint NOT NULL,
+    PRIMARY KEY (academic_year, house)
+);
+
+INSERT INTO house_points_totals (academic_year, house, points, entries)
+SELECT academic_year, house, sum(points), count(*) FROM houses_cup
+WHERE house IS NOT NULL
+GROUP BY academic_year, house
+ON CONFLICT (academic_year, house) DO NOTHING;
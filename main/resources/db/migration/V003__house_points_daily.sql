@@ -0,0 +1,21 @@
+-- Points per house per closed day, from which the day, week and month rollups of the charts are summed, and the
+-- last day they have been computed through. Days after that are summed from houses_cup when requested.
+
+CREATE TABLE IF NOT EXISTS house_points_daily (
+    day date NOT NULL,
+    house varchar(255) NOT NULL,
+    academic_year integer NOT NULL,
+    points bigint NOT NULL,
+    entries bigint NOT NULL,
+    PRIMARY KEY (day, house)
+);
+
+CREATE INDEX IF NOT EXISTS house_points_daily_academic_year_idx ON house_points_daily (academic_year, day);
+
+CREATE TABLE IF NOT EXISTS house_points_rollup_watermark (
+    id integer PRIMARY KEY,
+    rolled_through date NOT NULL
+);
+
+INSERT INTO house_points_rollup_watermark (id, rolled_through) VALUES (1, '-infinity')
+ON CONFLICT (id) DO NOTHING;
@@ -0,0 +1,20 @@
+-- Running totals of the Houses Cup points per student per house and academic year, seeded from the existing
+-- entries, from which students are ranked within their house and overall.
+
+CREATE TABLE IF NOT EXISTS student_points_totals (
+    academic_year integer NOT NULL,
+    house varchar(255) NOT NULL,
+    student integer NOT NULL,
+    points bigint NOT NULL,
+    entries bigint NOT NULL,
+    PRIMARY KEY (academic_year, house, student)
+);
+
+CREATE INDEX IF NOT EXISTS student_points_totals_ranking_idx
+    ON student_points_totals (academic_year, house, points DESC);
+
+INSERT INTO student_points_totals (academic_year, house, student, points, entries)
+SELECT academic_year, house, student, sum(points), count(*) FROM houses_cup
+WHERE house IS NOT NULL AND student IS NOT NULL
+GROUP BY academic_year, house, student
+ON CONFLICT (academic_year, house, student) DO NOTHING;
@@ -0,0 +1,27 @@
+-- Checkpoints of the Houses Cup totals per house and per student, each holding the sums of the entries dated before
+-- its cutoff. The standings at a past moment are read from the last checkpoint before it plus the entries after it.
+
+CREATE TABLE IF NOT EXISTS points_snapshots (
+    id bigserial PRIMARY KEY,
+    cutoff timestamp NOT NULL UNIQUE,
+    created timestamp NOT NULL DEFAULT now()
+);
+
+CREATE TABLE IF NOT EXISTS points_snapshot_houses (
+    snapshot_id bigint NOT NULL REFERENCES points_snapshots (id) ON DELETE CASCADE,
+    academic_year integer NOT NULL,
+    house varchar(255) NOT NULL,
+    points bigint NOT NULL,
+    entries bigint NOT NULL,
+    PRIMARY KEY (snapshot_id, academic_year, house)
+);
+
+CREATE TABLE IF NOT EXISTS points_snapshot_students (
+    snapshot_id bigint NOT NULL REFERENCES points_snapshots (id) ON DELETE CASCADE,
+    academic_year integer NOT NULL,
+    house varchar(255) NOT NULL,
+    student integer NOT NULL,
+    points bigint NOT NULL,
+    entries bigint NOT NULL,
+    PRIMARY KEY (snapshot_id, academic_year, house, student)
+);
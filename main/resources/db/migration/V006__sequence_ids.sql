@@ -0,0 +1,32 @@
+-- Surrogate keys drawn from sequences in blocks of 50, matching the allocation size of the entities, so that
+-- Hibernate assigns identifiers without a round trip per row and batches the inserts. Each sequence is set past
+-- the largest existing identifier plus one block.
+
+-- houses_cup was keyed on its date; existing entries are numbered in date order
+CREATE SEQUENCE IF NOT EXISTS houses_cup_id_seq INCREMENT BY 50;
+ALTER SEQUENCE houses_cup_id_seq INCREMENT BY 50;
+ALTER TABLE houses_cup ADD COLUMN IF NOT EXISTS id bigint;
+UPDATE houses_cup h SET id = n.id
+FROM (SELECT date, (SELECT coalesce(max(id), 0) FROM houses_cup) + row_number() OVER (ORDER BY date) AS id
+    FROM houses_cup WHERE id IS NULL) n
+WHERE h.date = n.date AND h.id IS NULL;
+ALTER TABLE houses_cup DROP CONSTRAINT IF EXISTS houses_cup_pkey;
+ALTER TABLE houses_cup ALTER COLUMN id SET NOT NULL;
+ALTER TABLE houses_cup ALTER COLUMN date SET NOT NULL;
+ALTER TABLE houses_cup ADD PRIMARY KEY (id);
+CREATE INDEX IF NOT EXISTS houses_cup_date_idx ON houses_cup (date);
+SELECT setval('houses_cup_id_seq', (SELECT coalesce(max(id), 0) FROM houses_cup) + 50);
+
+-- house_change_requests was an identity column; its default would hand out values inside Hibernate's blocks. The
+-- entity draws from a sequence of another name, since Hibernate refuses to start when the increment of an existing
+-- sequence differs from the allocation size, and the identity sequence goes with the default.
+CREATE SEQUENCE IF NOT EXISTS house_change_request_id_seq INCREMENT BY 50;
+ALTER SEQUENCE house_change_request_id_seq INCREMENT BY 50;
+ALTER TABLE house_change_requests ALTER COLUMN id DROP DEFAULT;
+DROP SEQUENCE IF EXISTS house_change_requests_id_seq;
+SELECT setval('house_change_request_id_seq', (SELECT coalesce(max(id), 0) FROM house_change_requests) + 50);
+
+-- change_logs drew its identifiers one at a time from the shared hibernate_sequence
+CREATE SEQUENCE IF NOT EXISTS change_logs_id_seq INCREMENT BY 50;
+ALTER SEQUENCE change_logs_id_seq INCREMENT BY 50;
+SELECT setval('change_logs_id_seq', (SELECT coalesce(max(id), 0) FROM change_logs) + 50);
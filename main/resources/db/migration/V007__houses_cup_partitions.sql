@@ -0,0 +1,83 @@
+-- Partitions houses_cup by academic year, so that queries of one year read one partition. Entries of a year
+-- without a partition go to houses_cup_default until houses_cup_ensure_partition moves them into their own.
+-- Closed years can be moved to the houses_cup_archive schema, where their partition is protected against writes
+-- by houses_cup_reject_write while it stays attached.
+
+CREATE SCHEMA IF NOT EXISTS houses_cup_archive;
+
+ALTER TABLE houses_cup RENAME TO houses_cup_unpartitioned;
+DROP INDEX IF EXISTS houses_cup_search_vector_idx;
+DROP INDEX IF EXISTS houses_cup_date_idx;
+ALTER TABLE houses_cup_unpartitioned DROP CONSTRAINT IF EXISTS houses_cup_pkey;
+
+CREATE TABLE houses_cup (LIKE houses_cup_unpartitioned INCLUDING DEFAULTS INCLUDING GENERATED)
+    PARTITION BY LIST (academic_year);
+ALTER TABLE houses_cup ADD PRIMARY KEY (id, academic_year);
+CREATE INDEX houses_cup_date_idx ON houses_cup (date);
+CREATE INDEX houses_cup_search_vector_idx ON houses_cup USING gin (search_vector);
+CREATE TABLE houses_cup_default PARTITION OF houses_cup DEFAULT;
+
+DO $$
+DECLARE
+    foreign_key record;
+BEGIN
+    FOR foreign_key IN SELECT conname, pg_get_constraintdef(oid) AS definition FROM pg_constraint
+            WHERE conrelid = 'houses_cup_unpartitioned'::regclass AND contype = 'f' LOOP
+        EXECUTE format('ALTER TABLE houses_cup_unpartitioned DROP CONSTRAINT %I', foreign_key.conname);
+        EXECUTE format('ALTER TABLE houses_cup ADD CONSTRAINT %I %s', foreign_key.conname, foreign_key.definition);
+    END LOOP;
+END
+$$;
+
+-- Gives an academic year its own partition, moving its entries out of the default partition if there are any.
+-- Writes to the default partition are held back until the partition is attached, so that no entry committed while
+-- the entries are moved is left behind or deleted without being moved. Returns whether a partition was created.
+CREATE OR REPLACE FUNCTION houses_cup_ensure_partition(partition_year integer) RETURNS boolean AS $$
+DECLARE
+    partition_name text := 'houses_cup_' || partition_year;
+    column_list text;
+BEGIN
+    LOCK TABLE houses_cup_default IN EXCLUSIVE MODE;
+    IF to_regclass(quote_ident(partition_name)) IS NOT NULL
+            OR to_regclass('houses_cup_archive.' || quote_ident(partition_name)) IS NOT NULL THEN
+        RETURN false;
+    END IF;
+    IF NOT EXISTS (SELECT 1 FROM houses_cup_default WHERE academic_year = partition_year) THEN
+        EXECUTE format('CREATE TABLE %I PARTITION OF houses_cup FOR VALUES IN (%s)', partition_name, partition_year);
+        RETURN true;
+    END IF;
+    SELECT string_agg(quote_ident(column_name), ', ' ORDER BY ordinal_position) INTO column_list
+    FROM information_schema.columns
+    WHERE table_schema = current_schema() AND table_name = 'houses_cup' AND is_generated = 'NEVER';
+    EXECUTE format('CREATE TABLE %I (LIKE houses_cup INCLUDING DEFAULTS INCLUDING GENERATED)', partition_name);
+    EXECUTE format('WITH moved AS (DELETE FROM houses_cup_default WHERE academic_year = %s RETURNING *) '
+            'INSERT INTO %I (%s) SELECT %s FROM moved',
+            partition_year, partition_name, column_list, column_list);
+    EXECUTE format('ALTER TABLE houses_cup ATTACH PARTITION %I FOR VALUES IN (%s)', partition_name, partition_year);
+    RETURN true;
+END
+$$ LANGUAGE plpgsql;
+
+-- Rejects writes to the partition of an archived academic year.
+CREATE OR REPLACE FUNCTION houses_cup_reject_write() RETURNS trigger AS $$
+BEGIN
+    RAISE EXCEPTION 'Houses Cup entries of archived academic year % cannot be changed',
+        coalesce(NEW.academic_year, OLD.academic_year);
+END
+$$ LANGUAGE plpgsql;
+
+SELECT houses_cup_ensure_partition(academic_year)
+FROM (SELECT DISTINCT academic_year FROM houses_cup_unpartitioned WHERE academic_year IS NOT NULL) years;
+
+DO $$
+DECLARE
+    column_list text;
+BEGIN
+    SELECT string_agg(quote_ident(column_name), ', ' ORDER BY ordinal_position) INTO column_list
+    FROM information_schema.columns
+    WHERE table_schema = current_schema() AND table_name = 'houses_cup' AND is_generated = 'NEVER';
+    EXECUTE format('INSERT INTO houses_cup (%s) SELECT %s FROM houses_cup_unpartitioned', column_list, column_list);
+END
+$$;
+
+DROP TABLE houses_cup_unpartitioned;
@@ -0,0 +1,19 @@
+-- Idempotency keys of the house change requests, derived as in HouseChangeRequest.idempotencyKey: the SHA-256 hash
+-- of the student, the old and target house and the explanation with its whitespace collapsed and in lower case.
+-- Requests submitted twice before the keys existed keep their own key, suffixed with their id.
+
+ALTER TABLE house_change_requests ADD COLUMN IF NOT EXISTS idempotency_key varchar(100);
+
+UPDATE house_change_requests SET idempotency_key = encode(sha256(convert_to(
+    student || chr(10) || coalesce(old_house, '') || chr(10) || coalesce(target_house, '') || chr(10) ||
+    lower(btrim(regexp_replace(coalesce(explanation, ''), '\s+', ' ', 'g'), ' ')), 'UTF8')), 'hex')
+WHERE idempotency_key IS NULL;
+
+UPDATE house_change_requests h SET idempotency_key = h.idempotency_key || '-' || h.id
+FROM (SELECT id, row_number() OVER (PARTITION BY idempotency_key ORDER BY id) AS n FROM house_change_requests) d
+WHERE d.id = h.id AND d.n > 1;
+
+ALTER TABLE house_change_requests ALTER COLUMN idempotency_key SET NOT NULL;
+
+CREATE UNIQUE INDEX IF NOT EXISTS house_change_requests_idempotency_key_idx
+    ON house_change_requests (idempotency_key);
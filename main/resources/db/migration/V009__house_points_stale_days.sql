@@ -0,0 +1,23 @@
+-- Closed days whose entries changed since they were summed into house_points_daily. They are recorded by a trigger in
+-- the transaction of the change and removed in the transaction that sums them again, so that a change is neither
+-- lost when that transaction rolls back nor forgotten when the application restarts.
+
+CREATE TABLE IF NOT EXISTS house_points_stale_days (
+    day date PRIMARY KEY
+);
+
+CREATE OR REPLACE FUNCTION house_points_mark_stale() RETURNS trigger AS $$
+BEGIN
+    IF TG_OP <> 'INSERT' AND OLD.date < current_date THEN
+        INSERT INTO house_points_stale_days (day) VALUES (OLD.date::date) ON CONFLICT (day) DO NOTHING;
+    END IF;
+    IF TG_OP <> 'DELETE' AND NEW.date < current_date THEN
+        INSERT INTO house_points_stale_days (day) VALUES (NEW.date::date) ON CONFLICT (day) DO NOTHING;
+    END IF;
+    RETURN NULL;
+END
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS house_points_mark_stale ON houses_cup;
+CREATE TRIGGER house_points_mark_stale AFTER INSERT OR UPDATE OR DELETE ON houses_cup
+FOR EACH ROW EXECUTE FUNCTION house_points_mark_stale();
@@ -0,0 +1,12 @@
+-- Indexes on the sort value and identifier of the default sort attributes of the paged lists, so that seeking past
+-- the last row of a page with a row-value comparison on the two reads the next page straight from the index, in
+-- either direction.
+
+CREATE INDEX IF NOT EXISTS students_last_name_idx ON students (last_name, id_number);
+CREATE INDEX IF NOT EXISTS users_last_name_idx ON users (last_name, id_number);
+
+DROP INDEX IF EXISTS houses_cup_date_idx;
+CREATE INDEX houses_cup_date_idx ON houses_cup (date, id);
+
+CREATE INDEX IF NOT EXISTS house_change_requests_decided_date_idx ON house_change_requests (decided_date, id);
+CREATE INDEX IF NOT EXISTS house_change_requests_request_date_idx ON house_change_requests (request_date, id);